@@ -0,0 +1,76 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.dto.SubmissionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to submit a batch of invoices with submitInvoiceAsync against a stand-in server answering after a fixed delay,
+ * for several in-flight limits. With a limit of 1 this is the old one invoice at a time behaviour.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class AsyncSubmissionBenchmark {
+    private static final int INVOICES = 100;
+
+    @Param({"1", "50", "200"})
+    private int maxInFlight;
+
+    @Param({"20"})
+    private long serverLatencyMillis;
+
+    private StandInServer standInServer;
+    private FotaraClient fotaraClient;
+    private String encodedInvoice;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        standInServer = new StandInServer(false, serverLatencyMillis);
+        fotaraClient = new FotaraClient(standInServer.getPropertiesManager(), FotaraClient.httpClientBuilder().build(), maxInFlight);
+        encodedInvoice = Base64.getEncoder().encodeToString(BenchmarkFixtures.sample("b2b_invoice").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        standInServer.close();
+    }
+
+    @Benchmark
+    public int submitBatch() {
+        CompletableFuture<?>[] submissions = new CompletableFuture<?>[INVOICES];
+        for (int i = 0; i < INVOICES; i++) {
+            submissions[i] = fotaraClient.submitInvoiceAsync(encodedInvoice, "client-id", "secret-key");
+        }
+        int cleared = 0;
+        for (CompletableFuture<?> submission : submissions) {
+            if (((SubmissionResult) submission.join()).isSuccessful()) {
+                cleared++;
+            }
+        }
+        if (cleared != INVOICES) {
+            throw new IllegalStateException(String.format("Only %d of %d invoices were cleared", cleared, INVOICES));
+        }
+        return cleared;
+    }
+}
@@ -0,0 +1,112 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.security.CryptoProviders;
+import gov.jordan.istd.utils.ECDSAUtil;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Inputs shared by the benchmarks: the bundled samples with their placeholders filled the same way onboarding fills
+ * them, synthetic invoices with any number of lines, and throw-away RSA/EC keys with self-signed certificates.
+ */
+final class BenchmarkFixtures {
+    private static final String INVOICE_LINE_START = "<cac:InvoiceLine>";
+    private static final String INVOICE_LINE_END = "</cac:InvoiceLine>";
+
+    private BenchmarkFixtures() {
+    }
+
+    // the signing code logs every intermediate value, which would otherwise be measured along with it
+    static void quietLogging() {
+        Logger.getRootLogger().setLevel(Level.WARN);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static String sample(String name) throws Exception {
+        try (InputStream inputStream = Objects.requireNonNull(BenchmarkFixtures.class.getClassLoader()
+                .getResourceAsStream("samples/" + name + ".xml"), name)) {
+            String file = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            String id = "BENCH-" + name;
+            return file.replace("${ID}", id)
+                    .replace("${UUID}", UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8)).toString())
+                    .replace("${ISSUE_DATE}", "2025-01-01")
+                    .replace("${ORG_ID}", "BENCH-ORG")
+                    .replace("${ORG_UUID}", UUID.nameUUIDFromBytes("BENCH-ORG".getBytes(StandardCharsets.UTF_8)).toString())
+                    .replace("${VAT_NUMBER}", "12345678")
+                    .replace("${TAXPAYER_NAME}", "Benchmark Company")
+                    .replace("${DEVICE_ID}", "1");
+        }
+    }
+
+    // the b2b invoice with its first line repeated, amounts are not recalculated since signing does not check them
+    static String syntheticInvoice(int lines) throws Exception {
+        String invoice = sample("b2b_invoice");
+        int start = invoice.indexOf(INVOICE_LINE_START);
+        int end = invoice.lastIndexOf(INVOICE_LINE_END) + INVOICE_LINE_END.length();
+        String line = invoice.substring(start, invoice.indexOf(INVOICE_LINE_END, start) + INVOICE_LINE_END.length());
+        StringBuilder builder = new StringBuilder(invoice.length() + line.length() * lines);
+        builder.append(invoice, 0, start);
+        for (int i = 0; i < lines; i++) {
+            builder.append(line.replaceFirst("<cbc:ID>[^<]*</cbc:ID>", "<cbc:ID>" + (i + 1) + "</cbc:ID>")).append('\n');
+        }
+        builder.append(invoice, end, invoice.length());
+        return builder.toString();
+    }
+
+    static KeyPair rsaKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static KeyPair ecKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    // RSA_2048, EC_P256 or EC_SECP256K1, the EC keys generated the way generate-csr-keys does with keyAlgorithm EC
+    static KeyPair keyPair(String keyType) throws Exception {
+        switch (keyType) {
+            case "RSA_2048":
+                return rsaKeyPair();
+            case "EC_P256":
+                return ECDSAUtil.getKeyPair("secp256r1");
+            case "EC_SECP256K1":
+                return ECDSAUtil.getKeyPair("secp256k1");
+            default:
+                throw new IllegalArgumentException("Unknown key type " + keyType);
+        }
+    }
+
+    // PEM body without headers, which is what SigningHelper strips the certificate down to anyway
+    static String selfSignedCertificate(KeyPair keyPair) throws Exception {
+        String signatureAlgorithm = "RSA".equals(keyPair.getPrivate().getAlgorithm()) ? "SHA256withRSA" : "SHA256withECDSA";
+        X500Name subject = new X500Name("C=JO, O=Benchmark, CN=Benchmark");
+        Date notBefore = new Date(System.currentTimeMillis() - 86_400_000L);
+        Date notAfter = new Date(System.currentTimeMillis() + 365 * 86_400_000L);
+        // the JDK cannot sign with secp256k1 keys
+        ContentSigner signer = new JcaContentSignerBuilder(signatureAlgorithm).setProvider(CryptoProviders.getBouncyCastleProvider()).build(keyPair.getPrivate());
+        X509CertificateHolder certificate = new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(System.nanoTime()),
+                notBefore, notAfter, subject, keyPair.getPublic()).build(signer);
+        return Base64.getEncoder().encodeToString(certificate.getEncoded());
+    }
+}
@@ -0,0 +1,56 @@
+package gov.jordan.istd.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Same command line as the JMH launcher, with the GC profiler always on so every result comes with its allocation
+ * rate (gc.alloc.rate.norm is the number of bytes allocated per operation). The help and listing options (-h, -l,
+ * -lp, -lprof, -lrf) are answered the way the JMH launcher does, without running anything.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        Runner listingRunner = new Runner(commandLineOptions);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+        if (commandLineOptions.shouldList()) {
+            listingRunner.list();
+            return;
+        }
+        if (commandLineOptions.shouldListWithParams()) {
+            listingRunner.listWithParams(commandLineOptions);
+            return;
+        }
+        if (commandLineOptions.shouldListProfilers()) {
+            commandLineOptions.listProfilers();
+            return;
+        }
+        if (commandLineOptions.shouldListResultFormats()) {
+            commandLineOptions.listResultFormats();
+            return;
+        }
+        Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+        try {
+            new Runner(options).run();
+        } catch (NoBenchmarksException e) {
+            System.err.println("No matching benchmarks, the available ones are:");
+            listingRunner.list();
+            System.exit(1);
+        } catch (RunnerException e) {
+            System.err.print("ERROR: ");
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.dto.DigitalSignature;
+import gov.jordan.istd.helper.DigitalSignatureHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigitalSignatureBenchmark {
+    private static final String INVOICE_HASH = "czVycjr6yGSTbmV4lld4BHYJYlYeCnzMkNKVJUeb4gM=";
+
+    @Param({"RSA_2048", "EC_P256", "EC_SECP256K1"})
+    private String keyType;
+
+    private DigitalSignatureHelper digitalSignatureHelper;
+    private PrivateKey privateKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        privateKey = BenchmarkFixtures.keyPair(keyType).getPrivate();
+        digitalSignatureHelper = new DigitalSignatureHelper();
+    }
+
+    @Benchmark
+    public DigitalSignature getDigitalSignature() {
+        return digitalSignatureHelper.getDigitalSignature(privateKey, INVOICE_HASH);
+    }
+}
@@ -0,0 +1,73 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.dto.EInvoiceResponse;
+import gov.jordan.istd.properties.PropertiesManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submission latency against a local stand-in server with the shared client (pooled connections, TLS session kept)
+ * and with a new HttpClient per call, which is how every FotaraClient method used to work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.internal.httpclient.disableHostnameVerification=true", "-Dsun.net.httpserver.nodelay=true"})
+public class FotaraClientBenchmark {
+    @Param({"http", "https"})
+    private String scheme;
+
+    @Param({"SHARED", "PER_CALL"})
+    private String client;
+
+    private StandInServer standInServer;
+    private PropertiesManager propertiesManager;
+    private FotaraClient sharedClient;
+    private String encodedInvoice;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        standInServer = new StandInServer("https".equals(scheme));
+        propertiesManager = standInServer.getPropertiesManager();
+        sharedClient = new FotaraClient(propertiesManager, newHttpClient());
+        encodedInvoice = Base64.getEncoder().encodeToString(BenchmarkFixtures.sample("b2b_invoice").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        standInServer.close();
+    }
+
+    @Benchmark
+    public EInvoiceResponse submitInvoice() {
+        FotaraClient fotaraClient = "SHARED".equals(client) ? sharedClient : new FotaraClient(propertiesManager, newHttpClient());
+        return fotaraClient.submitInvoice(encodedInvoice, "client-id", "secret-key");
+    }
+
+    private HttpClient newHttpClient() {
+        HttpClient.Builder builder = FotaraClient.httpClientBuilder();
+        if (standInServer.getSslContext() != null) {
+            builder.sslContext(standInServer.getSslContext());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,45 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.helper.HashingHelper;
+import gov.jordan.istd.loader.AppResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashingBenchmark {
+    @Param({"b2b_invoice", "b2b_credit", "b2c_invoice", "b2c_credit"})
+    private String sample;
+
+    private HashingHelper hashingHelper;
+    private AppResources appResources;
+    private String invoice;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        invoice = BenchmarkFixtures.sample(sample);
+        hashingHelper = new HashingHelper();
+        appResources = AppResources.getInstance();
+    }
+
+    @Benchmark
+    public String getInvoiceHash() throws Exception {
+        return hashingHelper.getInvoiceHash(invoice, appResources);
+    }
+}
@@ -0,0 +1,94 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.utils.PrivateKeyUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
+import org.bouncycastle.openssl.jcajce.JcaMiscPEMGenerator;
+import org.bouncycastle.util.io.pem.PemObjectGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Security;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One case per key format PrivateKeyUtil accepts. SDK_KEY_FILE is what generate-csr-keys writes (Base64 of the PKCS#8
+ * DER). EC keys are only covered as PKCS#8, the "EC PRIVATE KEY" branch hands the SEC1 body to a PKCS#8 key spec and
+ * cannot load keys written by other tools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrivateKeyLoadingBenchmark {
+    private static final String PASSWORD = "benchmark";
+
+    @Param({"SDK_KEY_FILE", "PKCS8_RSA", "PKCS8_EC", "PKCS1_RSA", "ENCRYPTED_PKCS8_RSA"})
+    private String format;
+
+    private String keyContent;
+    private String password;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        KeyPair rsaKeyPair = BenchmarkFixtures.rsaKeyPair();
+        switch (format) {
+            case "SDK_KEY_FILE":
+                keyContent = Base64.getEncoder().encodeToString(rsaKeyPair.getPrivate().getEncoded());
+                break;
+            case "PKCS8_RSA":
+                keyContent = toPem(new JcaPKCS8Generator(rsaKeyPair.getPrivate(), null));
+                break;
+            case "PKCS8_EC":
+                keyContent = toPem(new JcaPKCS8Generator(BenchmarkFixtures.ecKeyPair().getPrivate(), null));
+                break;
+            case "PKCS1_RSA":
+                keyContent = toPem(new JcaMiscPEMGenerator(rsaKeyPair));
+                break;
+            case "ENCRYPTED_PKCS8_RSA":
+                // PBES2 decryption needs BouncyCastle registered, which SigningHelper does in the CLI
+                Security.addProvider(new BouncyCastleProvider());
+                keyContent = toPem(new JcaPKCS8Generator(rsaKeyPair.getPrivate(),
+                        new JceOpenSSLPKCS8EncryptorBuilder(JcaPKCS8Generator.AES_256_CBC)
+                                .setPassword(PASSWORD.toCharArray()).build()));
+                password = PASSWORD;
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+        if (PrivateKeyUtil.loadPrivateKey(keyContent, password) == null) {
+            throw new IllegalStateException("Key format " + format + " cannot be loaded");
+        }
+    }
+
+    @Benchmark
+    public PrivateKey loadPrivateKey() throws Exception {
+        return PrivateKeyUtil.loadPrivateKey(keyContent, password);
+    }
+
+    private static String toPem(PemObjectGenerator generator) throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JcaPEMWriter pemWriter = new JcaPEMWriter(writer)) {
+            pemWriter.writeObject(generator);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.helper.QRGeneratorHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.io.ByteArrayInputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QrCodeBenchmark {
+    private static final String INVOICE_HASH = "czVycjr6yGSTbmV4lld4BHYJYlYeCnzMkNKVJUeb4gM=";
+
+    private QRGeneratorHelper qrGeneratorHelper;
+    private byte[] publicKey;
+    private byte[] certificateSignature;
+    private String signature;
+    private byte[] signatureBytes;
+    private byte[] certificateTail;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPair keyPair = BenchmarkFixtures.rsaKeyPair();
+        X509Certificate certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                new ByteArrayInputStream(Base64.getDecoder().decode(BenchmarkFixtures.selfSignedCertificate(keyPair))));
+        publicKey = certificate.getPublicKey().getEncoded();
+        certificateSignature = certificate.getSignature();
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(Base64.getDecoder().decode(INVOICE_HASH));
+        signatureBytes = signer.sign();
+        signature = Base64.getEncoder().encodeToString(signatureBytes);
+        certificateTail = QRGeneratorHelper.encodeCertificateTail(publicKey, certificateSignature);
+        qrGeneratorHelper = new QRGeneratorHelper();
+    }
+
+    @Benchmark
+    public String generateQrCode() {
+        return qrGeneratorHelper.generateQrCode("Benchmark Company", "12345678", "2025-01-01T10:15:30",
+                "1150.00", "150.00", INVOICE_HASH, publicKey, signature, certificateSignature);
+    }
+
+    // what signing does, the signature is already raw and tags 8 and 9 come from the signer session
+    @Benchmark
+    public String generateQrCodeWithCertificateTail() {
+        return qrGeneratorHelper.generateQrCode("Benchmark Company", "12345678", "2025-01-01T10:15:30",
+                "1150.00", "150.00", INVOICE_HASH, signatureBytes, certificateTail);
+    }
+}
@@ -0,0 +1,53 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.helper.SigningHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SigningBenchmark {
+    @Param({"b2b_invoice", "b2b_credit", "b2c_invoice", "b2c_credit"})
+    private String sample;
+
+    @Param({"RSA_2048", "EC_P256", "EC_SECP256K1"})
+    private String keyType;
+
+    private SigningHelper signingHelper;
+    private PrivateKey privateKey;
+    private String certificate;
+    private String invoice;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        KeyPair keyPair = BenchmarkFixtures.keyPair(keyType);
+        privateKey = keyPair.getPrivate();
+        certificate = BenchmarkFixtures.selfSignedCertificate(keyPair);
+        invoice = BenchmarkFixtures.sample(sample);
+        signingHelper = new SigningHelper();
+    }
+
+    @Benchmark
+    public EInvoiceSigningResults signEInvoice() {
+        return signingHelper.signEInvoice(invoice, privateKey, certificate);
+    }
+}
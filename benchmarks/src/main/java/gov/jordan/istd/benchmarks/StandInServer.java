@@ -0,0 +1,111 @@
+package gov.jordan.istd.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import gov.jordan.istd.properties.PropertiesManager;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the Fotara API answering every invoice with a fixed cleared response after an optional delay,
+ * over plain HTTP or over HTTPS with a throw-away self-signed certificate.
+ */
+final class StandInServer implements AutoCloseable {
+    private static final byte[] RESPONSE = "{\"status\":\"CLEARED\",\"invoiceHash\":\"czVycjr6yGSTbmV4lld4BHYJYlYeCnzMkNKVJUeb4gM=\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final char[] KEY_STORE_PASSWORD = "benchmark".toCharArray();
+    private final HttpServer httpServer;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final SSLContext sslContext;
+    private final long latencyMillis;
+
+    StandInServer(boolean https) throws Exception {
+        this(https, 0);
+    }
+
+    StandInServer(boolean https, long latencyMillis) throws Exception {
+        this.latencyMillis = latencyMillis;
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (https) {
+            sslContext = createSslContext();
+            HttpsServer httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            httpServer = httpsServer;
+        } else {
+            sslContext = null;
+            httpServer = HttpServer.create(address, 0);
+        }
+        httpServer.createContext("/", this::respond);
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    // trusts the server's own certificate, null for plain HTTP
+    SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    // every Fotara URL points at this server
+    PropertiesManager getPropertiesManager() {
+        String baseUrl = String.format("%s://localhost:%d", sslContext == null ? "http" : "https", httpServer.getAddress().getPort());
+        return key -> key.startsWith("fotara.api.url.") ? baseUrl + "/" + key.substring("fotara.api.url.".length()).replace('.', '/') : null;
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(RESPONSE);
+        }
+    }
+
+    private static SSLContext createSslContext() throws Exception {
+        KeyPair keyPair = BenchmarkFixtures.rsaKeyPair();
+        Certificate certificate = CertificateFactory.getInstance("X.509").generateCertificate(
+                new ByteArrayInputStream(Base64.getDecoder().decode(BenchmarkFixtures.selfSignedCertificate(keyPair))));
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), KEY_STORE_PASSWORD, new Certificate[]{certificate});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+}
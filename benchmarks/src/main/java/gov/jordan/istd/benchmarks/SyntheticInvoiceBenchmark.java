@@ -0,0 +1,64 @@
+package gov.jordan.istd.benchmarks;
+
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.helper.HashingHelper;
+import gov.jordan.istd.helper.SigningHelper;
+import gov.jordan.istd.loader.AppResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and hashing cost as the number of invoice lines grows, the 50k lines invoice is about 70 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SyntheticInvoiceBenchmark {
+    @Param({"10", "1000", "50000"})
+    private int lines;
+
+    private SigningHelper signingHelper;
+    private HashingHelper hashingHelper;
+    private AppResources appResources;
+    private PrivateKey privateKey;
+    private String certificate;
+    private String invoice;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkFixtures.quietLogging();
+        KeyPair keyPair = BenchmarkFixtures.rsaKeyPair();
+        privateKey = keyPair.getPrivate();
+        certificate = BenchmarkFixtures.selfSignedCertificate(keyPair);
+        invoice = BenchmarkFixtures.syntheticInvoice(lines);
+        signingHelper = new SigningHelper();
+        hashingHelper = new HashingHelper();
+        appResources = AppResources.getInstance();
+    }
+
+    @Benchmark
+    public EInvoiceSigningResults signEInvoice() {
+        return signingHelper.signEInvoice(invoice, privateKey, certificate);
+    }
+
+    @Benchmark
+    public String getInvoiceHash() throws Exception {
+        return hashingHelper.getInvoiceHash(invoice, appResources);
+    }
+}
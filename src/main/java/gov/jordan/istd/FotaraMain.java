@@ -1,6 +1,9 @@
 package gov.jordan.istd;
 
+import gov.jordan.istd.io.WriterHelper;
+import gov.jordan.istd.metrics.MetricsRegistry;
 import gov.jordan.istd.resolvers.InputResolver;
+import gov.jordan.istd.security.CryptoProviders;
 import gov.jordan.istd.processor.ActionProcessor;
 import gov.jordan.istd.properties.PropertiesFactory;
 import gov.jordan.istd.properties.PropertiesManager;
@@ -10,6 +13,7 @@ import org.apache.log4j.Logger;
 import java.util.Objects;
 
 public class FotaraMain {
+    private static final String METRICS_OUTPUT_PROPERTY = "metrics.output";
     private final Logger logger=Logger.getLogger("FotaraMain");
 
 
@@ -17,6 +21,7 @@ public class FotaraMain {
 
 
 
+        CryptoProviders.init();
         FotaraMain fotaraMain=new FotaraMain();
         fotaraMain.execute(args);
     }
@@ -54,5 +59,20 @@ public class FotaraMain {
             return;
         }
         actionProcessor.process(params,propertiesManager);
+        reportMetrics();
+    }
+
+    // stage timings of the run, logged and also written to -Dmetrics.output=<path> when it is set
+    private void reportMetrics() {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        if (metricsRegistry.isEmpty()) {
+            return;
+        }
+        String metrics = metricsRegistry.toJson();
+        logger.info("Metrics: " + metrics);
+        String metricsOutput = System.getProperty(METRICS_OUTPUT_PROPERTY);
+        if (StringUtils.isNotBlank(metricsOutput) && WriterHelper.writeFile(metricsOutput, metrics)) {
+            logger.info(String.format("Metrics written to [%s]", metricsOutput));
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package gov.jordan.istd.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit on the requests in flight. Every response within twice the lowest observed latency raises the limit by
+ * 1/limit (about one more request per round trip), a throttled response (429/503 or a timeout) halves it and a slow
+ * one takes 10% off. Decreases are at most one per latency window so a burst of rejections answering the same
+ * overload only counts once. The limit stays between 1 and the configured maximum.
+ */
+class AdaptiveConcurrencyLimiter {
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final double SLOW_BACKOFF = 0.9;
+    // the latency floor creeps up slowly so a route that got slower for good does not keep the limit down forever
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final long MIN_DECREASE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double baselineLatencyNanos;
+    private long lastDecrease;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(maxLimit, 1);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.lastDecrease = System.nanoTime() - MIN_DECREASE_INTERVAL_NANOS;
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized void onSuccess(long latencyNanos) {
+        if (baselineLatencyNanos == 0 || latencyNanos < baselineLatencyNanos) {
+            baselineLatencyNanos = latencyNanos;
+        } else {
+            baselineLatencyNanos += (latencyNanos - baselineLatencyNanos) * BASELINE_DRIFT;
+        }
+        if (latencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+            decrease(SLOW_BACKOFF);
+            return;
+        }
+        limit = Math.min(maxLimit, limit + 1 / limit);
+        notifyAll();
+    }
+
+    synchronized void onThrottled() {
+        decrease(THROTTLED_BACKOFF);
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    private void decrease(double factor) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < Math.max(MIN_DECREASE_INTERVAL_NANOS, (long) baselineLatencyNanos)) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(1, limit * factor);
+    }
+}
@@ -3,34 +3,128 @@ package gov.jordan.istd.client;
 import gov.jordan.istd.dto.CertificateResponse;
 import gov.jordan.istd.dto.ComplianceInvoiceResponse;
 import gov.jordan.istd.dto.EInvoiceResponse;
+import gov.jordan.istd.dto.SubmissionResult;
+import gov.jordan.istd.metrics.MetricsRegistry;
 import gov.jordan.istd.properties.PropertiesManager;
 import gov.jordan.istd.utils.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public class FotaraClient {
-    private final Logger log=Logger.getLogger("FotaraClient");
+    private static final String CONNECT_TIMEOUT_PROPERTY = "fotara.http.connect.timeout.seconds";
+    private static final String REQUEST_TIMEOUT_PROPERTY = "fotara.http.request.timeout.seconds";
+    private static final String THREADS_PROPERTY = "fotara.http.threads";
+    private static final String MAX_IN_FLIGHT_PROPERTY = "fotara.http.max.in.flight";
+    private static final String RATE_LIMIT_PROPERTY = "fotara.http.rate.limit";
+    private static final String RATE_BURST_PROPERTY = "fotara.http.rate.burst";
+    private static final String MAX_RETRIES_PROPERTY = "fotara.http.max.retries";
+    private static final String RETRY_BASE_DELAY_PROPERTY = "fotara.http.retry.base.millis";
+    private static final String RETRY_MAX_DELAY_PROPERTY = "fotara.http.retry.max.millis";
+    private static final long DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long DEFAULT_REQUEST_TIMEOUT_SECONDS = 60;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 100;
+    private static final int INITIAL_CONCURRENCY = 16;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 200;
+    private static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = 10000;
+    private static final Logger log=Logger.getLogger("FotaraClient");
+    private static HttpClient sharedHttpClient;
     private final PropertiesManager propertiesManager;
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final TokenBucket tokenBucket;
+    private final RetryPolicy retryPolicy;
+    private final MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
 
     public FotaraClient(PropertiesManager propertiesManager) {
+        this(propertiesManager, getSharedHttpClient());
+    }
+
+    public FotaraClient(PropertiesManager propertiesManager, HttpClient httpClient) {
+        this(propertiesManager, httpClient, (int) getLongProperty(MAX_IN_FLIGHT_PROPERTY, DEFAULT_MAX_IN_FLIGHT, 1));
+    }
+
+    // maxInFlight caps the invoice submissions this client has sent and not yet got an answer for, the actual limit
+    // starts lower and adapts to how the server copes
+    public FotaraClient(PropertiesManager propertiesManager, HttpClient httpClient, int maxInFlight) {
         this.propertiesManager = propertiesManager;
+        this.httpClient = httpClient;
+        this.requestTimeout = Duration.ofSeconds(getLongProperty(REQUEST_TIMEOUT_PROPERTY, DEFAULT_REQUEST_TIMEOUT_SECONDS, 1));
+        this.concurrencyLimiter = new AdaptiveConcurrencyLimiter(Math.min(INITIAL_CONCURRENCY, maxInFlight), maxInFlight);
+        int rateLimit = (int) getLongProperty(RATE_LIMIT_PROPERTY, 0, 0);
+        this.tokenBucket = new TokenBucket(rateLimit, (int) getLongProperty(RATE_BURST_PROPERTY, Math.max(rateLimit, 1), 1));
+        this.retryPolicy = new RetryPolicy((int) getLongProperty(MAX_RETRIES_PROPERTY, DEFAULT_MAX_RETRIES, 0),
+                getLongProperty(RETRY_BASE_DELAY_PROPERTY, DEFAULT_RETRY_BASE_DELAY_MILLIS, 1),
+                getLongProperty(RETRY_MAX_DELAY_PROPERTY, DEFAULT_RETRY_MAX_DELAY_MILLIS, 1));
+    }
+
+    // one client for the whole process, so connections (and TLS sessions) are pooled and reused between calls
+    public static synchronized HttpClient getSharedHttpClient() {
+        if (Objects.isNull(sharedHttpClient)) {
+            sharedHttpClient = httpClientBuilder().build();
+        }
+        return sharedHttpClient;
+    }
+
+    // HTTP/2 when the server negotiates it (HTTP/1.1 otherwise), with the timeouts and executor from the system properties
+    public static HttpClient.Builder httpClientBuilder() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(getLongProperty(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT_SECONDS, 1)));
+        String threads = System.getProperty(THREADS_PROPERTY);
+        if (Objects.nonNull(threads)) {
+            if (threads.matches("\\d{1,4}") && Integer.parseInt(threads) > 0) {
+                AtomicInteger threadNumber = new AtomicInteger();
+                builder.executor(Executors.newFixedThreadPool(Integer.parseInt(threads), runnable -> {
+                    Thread thread = new Thread(runnable, "fotara-http-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+            } else {
+                log.warn(String.format("Invalid %s [%s], using the default executor", THREADS_PROPERTY, threads));
+            }
+        }
+        return builder;
+    }
+
+    private static long getLongProperty(String property, long defaultValue, long minValue) {
+        String value = System.getProperty(property);
+        if (Objects.isNull(value)) {
+            return defaultValue;
+        }
+        if (!value.matches("\\d{1,9}") || Long.parseLong(value) < minValue) {
+            log.warn(String.format("Invalid %s [%s], using default [%d]", property, value, defaultValue));
+            return defaultValue;
+        }
+        return Long.parseLong(value);
     }
 
 
     public CertificateResponse complianceCsr(String otp, String csrEncoded) {
         try {
-            final HttpClient httpClient = HttpClient.newHttpClient();
             final String requestBody = "{ \"csr\":\"" + csrEncoded + "\"}";
             final String url = propertiesManager.getProperty("fotara.api.url.compliance.csr");
             HttpRequest request = getComplianceCsrHttpRequest(otp, url, requestBody);
             log.debug(String.format("compliance CSR [%s]", url));
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = send(request, "compliance_csr");
             log.debug("Response Code: " + response.statusCode());
             if (response.statusCode() / 100 == 2) {
                 return JsonUtils.readJson(response.body(), CertificateResponse.class);
@@ -43,7 +137,6 @@ public class FotaraClient {
 
     public ComplianceInvoiceResponse complianceInvoice(CertificateResponse complianceCsrResponse, String jsonBody) {
 
-        final HttpClient httpClient = HttpClient.newHttpClient();
         final String url = propertiesManager.getProperty("fotara.api.url.compliance.invoice");
         final String auth = complianceCsrResponse.getBinarySecurityToken() + ":" + complianceCsrResponse.getBinarySecurityToken();
         final String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.US_ASCII));
@@ -51,7 +144,7 @@ public class FotaraClient {
         final HttpRequest request = getDefaultHttpRequest(jsonBody, url, authHeader);
         ComplianceInvoiceResponse response = null;
         try {
-            HttpResponse<String> httpResponse = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> httpResponse = sendThrottled(request, "compliance_invoice");
             int statusCode = httpResponse.statusCode();
             if (statusCode / 100 != 5) {
                 response = JsonUtils.readJson(httpResponse.body().replace("\n",""), ComplianceInvoiceResponse.class);
@@ -62,8 +155,22 @@ public class FotaraClient {
         return response;
     }
 
+    // same as complianceInvoice without blocking on the response, counted against the in-flight limit like the
+    // submissions, completes with null when the server failed (5xx) or could not be reached
+    public CompletableFuture<ComplianceInvoiceResponse> complianceInvoiceAsync(CertificateResponse complianceCsrResponse, String jsonBody) {
+        final String url = propertiesManager.getProperty("fotara.api.url.compliance.invoice");
+        final String auth = complianceCsrResponse.getBinarySecurityToken() + ":" + complianceCsrResponse.getBinarySecurityToken();
+        final String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.US_ASCII));
+        final String authHeader = "Basic " + encodedAuth;
+        return sendAsync(getDefaultHttpRequest(jsonBody, url, authHeader), "compliance_invoice").thenApply(result -> {
+            if (result.getStatusCode() == 0 || result.getStatusCode() / 100 == 5 || StringUtils.isBlank(result.getResponseBody())) {
+                return null;
+            }
+            return JsonUtils.readJson(result.getResponseBody().replace("\n", ""), ComplianceInvoiceResponse.class);
+        });
+    }
+
     public CertificateResponse getProdCertificate(CertificateResponse complianceResponse, long requestID) {
-        final HttpClient httpClient = HttpClient.newHttpClient();
         final String url = propertiesManager.getProperty("fotara.api.url.prod.certificate");
         final String auth = complianceResponse.getBinarySecurityToken() + ":" + complianceResponse.getBinarySecurityToken();
         final String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.US_ASCII));
@@ -71,7 +178,7 @@ public class FotaraClient {
         String jsonBody = "{\"compliance_request_id\":\"" + requestID + "\"}";
         final HttpRequest request = getDefaultHttpRequest(jsonBody, url, authHeader);
         try {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> response = send(request, "prod_certificate");
             log.debug("Response Code: " + response.statusCode());
             if (response.statusCode() / 100 == 2) {
                 return JsonUtils.readJson(response.body(), CertificateResponse.class);
@@ -83,39 +190,194 @@ public class FotaraClient {
     }
 
     public EInvoiceResponse submitInvoice(String jsonBody, String clientId, String secretKey) {
-        final HttpClient httpClient = HttpClient.newHttpClient();
         final String url = propertiesManager.getProperty("fotara.api.url.prod.invoice");
 
         final String requestBody = "{ \"invoice\":\"" + jsonBody + "\"}";
         final HttpRequest request = getSubmitInvoiceHttpRequset(requestBody, url, clientId, secretKey);
         try {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            System.out.println("Response Code: " + response.statusCode());
-            System.out.println("Response Body: " + response.body());
+            HttpResponse<String> response = sendThrottled(request, "submit_invoice");
+            log.debug("Response Code: " + response.statusCode());
+            log.debug("Response Body: " + response.body());
             if (response.statusCode() / 100 == 2) {
                 return JsonUtils.readJson(response.body(), EInvoiceResponse.class);
             }
         } catch (Exception e) {
-            System.out.printf("failed to submit invoice [%s]\n", e.getMessage());
+            log.error("failed to submit invoice ", e);
         }
         return null;
     }
 
+    public CompletableFuture<SubmissionResult> submitInvoiceAsync(String jsonBody, String clientId, String secretKey) {
+        final String requestBody = "{ \"invoice\":\"" + jsonBody + "\"}";
+        return submitInvoiceAsync(HttpRequest.BodyPublishers.ofString(requestBody), clientId, secretKey);
+    }
+
+    // requestBody is built by InvoiceRequestBody, which encodes the signed XML while it is sent
+    public CompletableFuture<SubmissionResult> submitInvoiceAsync(HttpRequest.BodyPublisher requestBody, String clientId, String secretKey) {
+        final String url = propertiesManager.getProperty("fotara.api.url.prod.invoice");
+        return sendAsync(getSubmitInvoiceHttpRequset(requestBody, url, clientId, secretKey), "submit_invoice");
+    }
+
+    public CompletableFuture<SubmissionResult> reportInvoiceAsync(String jsonBody, String clientId, String secretKey) {
+        final String requestBody = "{ \"invoice\":\"" + jsonBody + "\"}";
+        return reportInvoiceAsync(HttpRequest.BodyPublishers.ofString(requestBody), clientId, secretKey);
+    }
+
+    public CompletableFuture<SubmissionResult> reportInvoiceAsync(HttpRequest.BodyPublisher requestBody, String clientId, String secretKey) {
+        final String url = propertiesManager.getProperty("fotara.api.url.prod.report.invoice");
+        return sendAsync(getSubmitInvoiceHttpRequset(requestBody, url, clientId, secretKey), "report_invoice");
+    }
+
+    // blocks the caller while the in-flight limit is reached, the returned future never completes exceptionally
+    private CompletableFuture<SubmissionResult> sendAsync(HttpRequest request, String operation) {
+        try {
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(new SubmissionResult(SubmissionResult.Failure.NOT_SENT, "Interrupted while waiting for an in-flight slot"));
+        }
+        long start = System.nanoTime();
+        return attemptAsync(request, operation, 0, tokenBucket.reserve()).handle((result, error) -> {
+            concurrencyLimiter.release();
+            if (Objects.isNull(result)) {
+                result = new SubmissionResult(SubmissionResult.Failure.OUTCOME_UNKNOWN, unwrap(error).toString());
+            }
+            result.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        });
+    }
+
+    private CompletableFuture<SubmissionResult> attemptAsync(HttpRequest request, String operation, int attempt, long delayNanos) {
+        Executor executor = delayNanos > 0 ? CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS) : Runnable::run;
+        return CompletableFuture.supplyAsync(System::nanoTime, executor)
+                .thenCompose(start -> sendRequestAsync(request)
+                        .handle((response, error) -> onAsyncResponse(request, operation, attempt, System.nanoTime() - start, response, error)))
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<SubmissionResult> onAsyncResponse(HttpRequest request, String operation, int attempt, long latencyNanos,
+                                                                HttpResponse<String> response, Throwable error) {
+        metricsRegistry.timer("client." + operation).record(latencyNanos);
+        if (Objects.nonNull(error)) {
+            Throwable cause = unwrap(error);
+            metricsRegistry.counter(String.format("client.%s.error", operation)).increment();
+            if (cause instanceof HttpTimeoutException) {
+                concurrencyLimiter.onThrottled();
+            }
+            if (retryPolicy.isRetryable(cause) && retryPolicy.canRetry(attempt)) {
+                return retryAsync(request, operation, attempt);
+            }
+            log.error(String.format("failed to %s [%s]", operation.replace('_', ' '), cause.getMessage()));
+            SubmissionResult result = new SubmissionResult(retryPolicy.isRetryable(cause)
+                    ? SubmissionResult.Failure.NOT_SENT : SubmissionResult.Failure.OUTCOME_UNKNOWN, cause.toString());
+            result.setAttempts(attempt + 1);
+            return CompletableFuture.completedFuture(result);
+        }
+        metricsRegistry.counter(String.format("client.%s.%dxx", operation, response.statusCode() / 100)).increment();
+        log.debug("Response Code: " + response.statusCode());
+        if (retryPolicy.isThrottled(response.statusCode())) {
+            concurrencyLimiter.onThrottled();
+            tokenBucket.pause(retryPolicy.getRetryAfterNanos(response));
+            if (retryPolicy.canRetry(attempt)) {
+                return retryAsync(request, operation, attempt);
+            }
+        } else {
+            concurrencyLimiter.onSuccess(latencyNanos);
+        }
+        // rejected invoices come back with the validation messages in the same body, so it is parsed whatever the status
+        EInvoiceResponse invoiceResponse = StringUtils.isBlank(response.body()) ? null : JsonUtils.readJson(response.body(), EInvoiceResponse.class);
+        SubmissionResult result = new SubmissionResult(response.statusCode(), 0, invoiceResponse, response.body(), null);
+        result.setAttempts(attempt + 1);
+        return CompletableFuture.completedFuture(result);
+    }
+
+    private CompletableFuture<SubmissionResult> retryAsync(HttpRequest request, String operation, int attempt) {
+        metricsRegistry.counter(String.format("client.%s.retry", operation)).increment();
+        return attemptAsync(request, operation, attempt + 1, Math.max(retryPolicy.getDelayNanos(attempt), tokenBucket.reserve()));
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendRequestAsync(HttpRequest request) {
+        try {
+            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // rate limited, counted against the in-flight limit and retried while the server is throttling or unreachable,
+    // the last response is returned when the retries run out
+    private HttpResponse<String> sendThrottled(HttpRequest request, String operation) throws Exception {
+        concurrencyLimiter.acquire();
+        try {
+            long delayNanos = tokenBucket.reserve();
+            for (int attempt = 0; ; attempt++) {
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+                long start = System.nanoTime();
+                try {
+                    HttpResponse<String> response = send(request, operation);
+                    if (!retryPolicy.isThrottled(response.statusCode())) {
+                        concurrencyLimiter.onSuccess(System.nanoTime() - start);
+                        return response;
+                    }
+                    concurrencyLimiter.onThrottled();
+                    tokenBucket.pause(retryPolicy.getRetryAfterNanos(response));
+                    if (!retryPolicy.canRetry(attempt)) {
+                        return response;
+                    }
+                } catch (IOException e) {
+                    if (e instanceof HttpTimeoutException) {
+                        concurrencyLimiter.onThrottled();
+                    }
+                    if (!retryPolicy.isRetryable(e) || !retryPolicy.canRetry(attempt)) {
+                        throw e;
+                    }
+                }
+                metricsRegistry.counter(String.format("client.%s.retry", operation)).increment();
+                delayNanos = Math.max(retryPolicy.getDelayNanos(attempt), tokenBucket.reserve());
+            }
+        } finally {
+            concurrencyLimiter.release();
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && Objects.nonNull(error.getCause()) ? error.getCause() : error;
+    }
+
+    // every call is timed per operation and counted per status class (client.submit_invoice.2xx) or as an error
+    private HttpResponse<String> send(HttpRequest request, String operation) throws Exception {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            metricsRegistry.counter(String.format("client.%s.%dxx", operation, response.statusCode() / 100)).increment();
+            return response;
+        } catch (Exception e) {
+            metricsRegistry.counter(String.format("client.%s.error", operation)).increment();
+            throw e;
+        } finally {
+            metricsRegistry.timer("client." + operation).recordSince(start);
+        }
+    }
+
     private HttpRequest getSubmitInvoiceHttpRequset(String jsonBody, String url, String clientId, String secretKey) {
+        return getSubmitInvoiceHttpRequset(HttpRequest.BodyPublishers.ofString(jsonBody), url, clientId, secretKey);
+    }
+
+    private HttpRequest getSubmitInvoiceHttpRequset(HttpRequest.BodyPublisher requestBody, String url, String clientId, String secretKey) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(url))
-                .timeout(Duration.ofSeconds(60))
+                .timeout(requestTimeout)
                 .header("Content-Type", "application/json")
                 .header("Accept", "application/json")
                 .header("Client-Id", clientId)
                 .header("Secret-Key", secretKey)
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .POST(requestBody)
                 .build();
     }
     private HttpRequest getDefaultHttpRequest(String jsonBody, String url, String authHeader) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(url))
-                .timeout(Duration.ofSeconds(60))
+                .timeout(requestTimeout)
                 .header("Accept-Language", "en")
                 .header("Accept", "application/json")
                 .header("Accept-Version", "V2")
@@ -127,7 +389,7 @@ public class FotaraClient {
     private HttpRequest getComplianceCsrHttpRequest(String otp, String url, String requestBody) {
         return HttpRequest.newBuilder()
                 .uri(URI.create(url))
-                .timeout(Duration.ofSeconds(60))
+                .timeout(requestTimeout)
                 .header("OTP", otp)
                 .header("Accept-Language", "en")
                 .header("accept", "application/json")
@@ -138,19 +400,18 @@ public class FotaraClient {
     }
 
     public EInvoiceResponse reportInvoice(String jsonBody, String clientId, String secretKey){
-        final HttpClient httpClient = HttpClient.newHttpClient();
         final String url = propertiesManager.getProperty("fotara.api.url.prod.report.invoice");
         final String requestBody = "{ \"invoice\":\"" + jsonBody + "\"}";
         final HttpRequest request = getSubmitInvoiceHttpRequset(requestBody, url, clientId, secretKey);
         try {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            System.out.println("Response Code: " + response.statusCode());
-            System.out.println("Response Body: " + response.body());
+            HttpResponse<String> response = sendThrottled(request, "report_invoice");
+            log.debug("Response Code: " + response.statusCode());
+            log.debug("Response Body: " + response.body());
             if (response.statusCode() / 100 == 2) {
                 return JsonUtils.readJson(response.body(), EInvoiceResponse.class);
             }
         } catch (Exception e) {
-            System.out.printf("failed to report invoice [%s]\n", e.getMessage());
+            log.error("failed to report invoice ", e);
         }
         return null;
     }
@@ -0,0 +1,103 @@
+package gov.jordan.istd.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Request body of an invoice submission, {@code { "invoice":"<signed XML in Base64>"}}, produced while the request is
+ * sent. The XML is read and encoded a chunk at a time, so a request holds a few kilobytes whatever the size of the
+ * invoice, and it is read again from the start when the request is retried. The length is known up front, the body
+ * is sent with a Content-Length rather than chunked.
+ */
+public final class InvoiceRequestBody {
+    private static final byte[] PREFIX = "{ \"invoice\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+    // a multiple of 3 so that only the last chunk is padded
+    private static final int CHUNK_SIZE = 3 * 4096;
+
+    private InvoiceRequestBody() {
+    }
+
+    public static HttpRequest.BodyPublisher ofFile(Path signedXml) throws IOException {
+        return publisher(() -> {
+            try {
+                return Files.newInputStream(signedXml);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Files.size(signedXml));
+    }
+
+    public static HttpRequest.BodyPublisher ofBytes(byte[] signedXml) {
+        return publisher(() -> new ByteArrayInputStream(signedXml), signedXml.length);
+    }
+
+    private static HttpRequest.BodyPublisher publisher(Supplier<InputStream> signedXml, long signedXmlLength) {
+        long contentLength = PREFIX.length + 4 * ((signedXmlLength + 2) / 3) + SUFFIX.length;
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(
+                Collections.enumeration(List.of(new ByteArrayInputStream(PREFIX), new Base64EncodingInputStream(signedXml.get()),
+                        new ByteArrayInputStream(SUFFIX))))), contentLength);
+    }
+
+    private static final class Base64EncodingInputStream extends InputStream {
+        private final Base64.Encoder encoder = Base64.getEncoder();
+        private final InputStream source;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+        private int position;
+        private int limit;
+
+        private Base64EncodingInputStream(InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return encoded[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            int count = Math.min(length, limit - position);
+            System.arraycopy(encoded, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private boolean fill() throws IOException {
+            int read = source.readNBytes(chunk, 0, chunk.length);
+            if (read == 0) {
+                return false;
+            }
+            limit = encoder.encode(read == chunk.length ? chunk : Arrays.copyOf(chunk, read), encoded);
+            position = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package gov.jordan.istd.client;
+
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which failures are retried and how long to wait before the next attempt. Only failures where the server did not
+ * process the invoice are retried: 429 and 503 answers and connections that could not be opened. A request timeout
+ * is not retried since the invoice may already have been cleared. Waits are exponential with full jitter, and never
+ * shorter than the Retry-After header.
+ */
+class RetryPolicy {
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private final int maxRetries;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(baseDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseDelayMillis, maxDelayMillis));
+    }
+
+    boolean isThrottled(int statusCode) {
+        return statusCode == TOO_MANY_REQUESTS || statusCode == SERVICE_UNAVAILABLE;
+    }
+
+    boolean isRetryable(Throwable error) {
+        return error instanceof ConnectException || error instanceof HttpConnectTimeoutException;
+    }
+
+    boolean canRetry(int attempt) {
+        return attempt < maxRetries;
+    }
+
+    long getDelayNanos(int attempt) {
+        long ceiling = baseDelayNanos << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > maxDelayNanos) {
+            ceiling = maxDelayNanos;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // only the delay-seconds form of Retry-After is read, an HTTP date falls back to the exponential back-off
+    long getRetryAfterNanos(HttpResponse<?> response) {
+        Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+        if (retryAfter.isPresent() && retryAfter.get().trim().matches("\\d{1,6}")) {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.get().trim()));
+        }
+        return 0;
+    }
+}
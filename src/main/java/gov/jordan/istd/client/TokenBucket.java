@@ -0,0 +1,44 @@
+package gov.jordan.istd.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request rate limiter. Callers reserve a token and get back how long they have to wait before sending, so the same
+ * bucket works for blocking calls (sleep) and asynchronous ones (delayed send). Tokens can be borrowed from the
+ * future, the wait then grows with the debt. A rate of 0 means no rate limit, only pauses apply.
+ */
+class TokenBucket {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    TokenBucket(int requestsPerSecond, int burst) {
+        this.tokensPerNano = requestsPerSecond / NANOS_PER_SECOND;
+        this.capacity = Math.max(burst, 1);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+    }
+
+    // nanoseconds to wait before the reserved request may be sent
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        long pauseNanos = Math.max(0, pausedUntil - now);
+        if (tokensPerNano <= 0) {
+            return pauseNanos;
+        }
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+        tokens -= 1;
+        long debtNanos = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+        return Math.max(pauseNanos, debtNanos);
+    }
+
+    // nothing is sent before the pause is over, used when the server asks to retry after some time
+    synchronized void pause(long nanos) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + nanos);
+    }
+}
@@ -0,0 +1,57 @@
+package gov.jordan.istd.dto;
+
+public class BatchCsrResult {
+    private String commonName;
+    private String serialNumber;
+    private String file;
+    private String status;
+    private String error;
+
+    public BatchCsrResult() {
+    }
+
+    public BatchCsrResult(String commonName, String serialNumber) {
+        this.commonName = commonName;
+        this.serialNumber = serialNumber;
+    }
+
+    public String getCommonName() {
+        return commonName;
+    }
+
+    public void setCommonName(String commonName) {
+        this.commonName = commonName;
+    }
+
+    public String getSerialNumber() {
+        return serialNumber;
+    }
+
+    public void setSerialNumber(String serialNumber) {
+        this.serialNumber = serialNumber;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,65 @@
+package gov.jordan.istd.dto;
+
+public class BatchSigningResult {
+    private String file;
+    private String invoiceUUID;
+    private String invoiceHash;
+    private String qrCode;
+    private String status;
+    private String error;
+
+    public BatchSigningResult() {
+    }
+
+    public BatchSigningResult(String file) {
+        this.file = file;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public String getInvoiceUUID() {
+        return invoiceUUID;
+    }
+
+    public void setInvoiceUUID(String invoiceUUID) {
+        this.invoiceUUID = invoiceUUID;
+    }
+
+    public String getInvoiceHash() {
+        return invoiceHash;
+    }
+
+    public void setInvoiceHash(String invoiceHash) {
+        this.invoiceHash = invoiceHash;
+    }
+
+    public String getQrCode() {
+        return qrCode;
+    }
+
+    public void setQrCode(String qrCode) {
+        this.qrCode = qrCode;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
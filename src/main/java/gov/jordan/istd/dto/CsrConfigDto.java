@@ -3,6 +3,9 @@ package gov.jordan.istd.dto;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class CsrConfigDto {
+    public static final String RSA = "RSA";
+    public static final String EC = "EC";
+    public static final String DEFAULT_CURVE = "secp256k1";
 
     @JsonProperty("CommonName")
     private String enName;
@@ -18,6 +21,12 @@ public class CsrConfigDto {
     @JsonProperty("keySize")
     private int keySize;
 
+    @JsonProperty("keyAlgorithm")
+    private String keyAlgorithm;
+
+    @JsonProperty("curve")
+    private String curve;
+
     @JsonProperty("templateOid")
     private String templateOid;
 
@@ -77,6 +86,22 @@ public class CsrConfigDto {
         this.keySize = keySize;
     }
 
+    public String getKeyAlgorithm() {
+        return keyAlgorithm == null || keyAlgorithm.trim().isEmpty() ? RSA : keyAlgorithm.trim().toUpperCase();
+    }
+
+    public void setKeyAlgorithm(String keyAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    public String getCurve() {
+        return curve == null || curve.trim().isEmpty() ? DEFAULT_CURVE : curve.trim();
+    }
+
+    public void setCurve(String curve) {
+        this.curve = curve;
+    }
+
     public String getTemplateOid() {
         return templateOid;
     }
@@ -116,6 +141,23 @@ public class CsrConfigDto {
                            enName.trim(), organizationIdentifier.trim(), organizationUnitName.trim(), serialNumber.trim(), country.trim());
     }
 
+    // a copy of this config for one device of a batch, only the name and serial number differ
+    public CsrConfigDto forDevice(String enName, String serialNumber) {
+        CsrConfigDto device = new CsrConfigDto();
+        device.enName = enName;
+        device.organizationIdentifier = organizationIdentifier;
+        device.organizationUnitName = organizationUnitName;
+        device.serialNumber = serialNumber;
+        device.country = country;
+        device.keySize = keySize;
+        device.keyAlgorithm = keyAlgorithm;
+        device.curve = curve;
+        device.templateOid = templateOid;
+        device.majorVersion = majorVersion;
+        device.minorVersion = minorVersion;
+        return device;
+    }
+
     public void loadStandardConfigFromResources() {
         try {
             gov.jordan.istd.loader.AppResourceLoader resourceLoader = new gov.jordan.istd.loader.AppResourceLoader();
@@ -134,6 +176,12 @@ public class CsrConfigDto {
                 if (standardConfig.getKeySize() > 0) {
                     this.keySize = standardConfig.getKeySize();
                 }
+                if (standardConfig.keyAlgorithm != null && !standardConfig.keyAlgorithm.trim().isEmpty()) {
+                    this.keyAlgorithm = standardConfig.keyAlgorithm;
+                }
+                if (standardConfig.curve != null && !standardConfig.curve.trim().isEmpty()) {
+                    this.curve = standardConfig.curve;
+                }
                 if (standardConfig.getTemplateOid() != null && !standardConfig.getTemplateOid().trim().isEmpty()) {
                     this.templateOid = standardConfig.getTemplateOid();
                 }
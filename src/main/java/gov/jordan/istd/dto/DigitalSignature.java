@@ -4,12 +4,18 @@ package gov.jordan.istd.dto;
 public class DigitalSignature {
     private String digitalSignature;
     private byte[] xmlHashing;
+    private byte[] digitalSignatureBytes;
 
     public DigitalSignature(String digitalSignature, byte[] xmlHashing) {
         this.digitalSignature = digitalSignature;
         this.xmlHashing = xmlHashing;
     }
 
+    public DigitalSignature(String digitalSignature, byte[] xmlHashing, byte[] digitalSignatureBytes) {
+        this(digitalSignature, xmlHashing);
+        this.digitalSignatureBytes = digitalSignatureBytes;
+    }
+
     public String getDigitalSignature() {
         return digitalSignature;
     }
@@ -17,4 +23,8 @@ public class DigitalSignature {
     public byte[] getXmlHashing() {
         return xmlHashing;
     }
+
+    public byte[] getDigitalSignatureBytes() {
+        return digitalSignatureBytes;
+    }
 }
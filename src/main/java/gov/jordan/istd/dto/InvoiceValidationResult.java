@@ -0,0 +1,86 @@
+package gov.jordan.istd.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InvoiceValidationResult {
+    private String file;
+    private String xsdValidation;
+    private String calculationsRules;
+    private String regulationsRules;
+    private List<String> xsdErrors = new ArrayList<>();
+    private List<String> calculationsErrors = new ArrayList<>();
+    private List<String> regulationsErrors = new ArrayList<>();
+    private List<String> failedRules = new ArrayList<>();
+
+    public InvoiceValidationResult() {
+    }
+
+    public InvoiceValidationResult(String file) {
+        this.file = file;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public String getXsdValidation() {
+        return xsdValidation;
+    }
+
+    public void setXsdValidation(String xsdValidation) {
+        this.xsdValidation = xsdValidation;
+    }
+
+    public String getCalculationsRules() {
+        return calculationsRules;
+    }
+
+    public void setCalculationsRules(String calculationsRules) {
+        this.calculationsRules = calculationsRules;
+    }
+
+    public List<String> getXsdErrors() {
+        return xsdErrors;
+    }
+
+    public void setXsdErrors(List<String> xsdErrors) {
+        this.xsdErrors = xsdErrors;
+    }
+
+    public List<String> getCalculationsErrors() {
+        return calculationsErrors;
+    }
+
+    public void setCalculationsErrors(List<String> calculationsErrors) {
+        this.calculationsErrors = calculationsErrors;
+    }
+
+    public String getRegulationsRules() {
+        return regulationsRules;
+    }
+
+    public void setRegulationsRules(String regulationsRules) {
+        this.regulationsRules = regulationsRules;
+    }
+
+    public List<String> getRegulationsErrors() {
+        return regulationsErrors;
+    }
+
+    public void setRegulationsErrors(List<String> regulationsErrors) {
+        this.regulationsErrors = regulationsErrors;
+    }
+
+    public List<String> getFailedRules() {
+        return failedRules;
+    }
+
+    public void setFailedRules(List<String> failedRules) {
+        this.failedRules = failedRules;
+    }
+}
@@ -0,0 +1,83 @@
+package gov.jordan.istd.dto;
+
+public class OutboxFlushResult {
+    private int attempted;
+    private int sent;
+    private int rejected;
+    private int unresolved;
+    private int pending;
+    private int withoutSecretKey;
+    private long elapsedMillis;
+
+    public OutboxFlushResult() {
+    }
+
+    public OutboxFlushResult(int attempted, int sent, int rejected, int unresolved, int pending, int withoutSecretKey, long elapsedMillis) {
+        this.attempted = attempted;
+        this.sent = sent;
+        this.rejected = rejected;
+        this.unresolved = unresolved;
+        this.pending = pending;
+        this.withoutSecretKey = withoutSecretKey;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getAttempted() {
+        return attempted;
+    }
+
+    public void setAttempted(int attempted) {
+        this.attempted = attempted;
+    }
+
+    public int getSent() {
+        return sent;
+    }
+
+    public void setSent(int sent) {
+        this.sent = sent;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    // may have been processed by Fotara, to be checked by hand
+    public int getUnresolved() {
+        return unresolved;
+    }
+
+    public void setUnresolved(int unresolved) {
+        this.unresolved = unresolved;
+    }
+
+    // still in the outbox after the flush, either not attempted or not delivered
+    public int getPending() {
+        return pending;
+    }
+
+    public void setPending(int pending) {
+        this.pending = pending;
+    }
+
+    // pending entries that were not attempted since the secret key of their client is not known
+    public int getWithoutSecretKey() {
+        return withoutSecretKey;
+    }
+
+    public void setWithoutSecretKey(int withoutSecretKey) {
+        this.withoutSecretKey = withoutSecretKey;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+}
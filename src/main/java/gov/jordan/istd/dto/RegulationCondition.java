@@ -0,0 +1,34 @@
+package gov.jordan.istd.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RegulationCondition {
+    private String field;
+    private List<String> values = new ArrayList<>();
+    private String pattern;
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+}
@@ -0,0 +1,70 @@
+package gov.jordan.istd.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RegulationRule {
+    private String id;
+    private String description;
+    private String field;
+    private String check;
+    private List<String> values = new ArrayList<>();
+    private String pattern;
+    private RegulationCondition when;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public String getCheck() {
+        return check;
+    }
+
+    public void setCheck(String check) {
+        this.check = check;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public RegulationCondition getWhen() {
+        return when;
+    }
+
+    public void setWhen(RegulationCondition when) {
+        this.when = when;
+    }
+}
@@ -0,0 +1,16 @@
+package gov.jordan.istd.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RegulationRules {
+    private List<RegulationRule> rules = new ArrayList<>();
+
+    public List<RegulationRule> getRules() {
+        return rules;
+    }
+
+    public void setRules(List<RegulationRule> rules) {
+        this.rules = rules;
+    }
+}
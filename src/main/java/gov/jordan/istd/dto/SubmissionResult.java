@@ -0,0 +1,97 @@
+package gov.jordan.istd.dto;
+
+public class SubmissionResult {
+    public enum Failure {
+        // the request never left: the connection could not be opened or the call was interrupted before sending
+        NOT_SENT,
+        // the request may have reached Fotara but no answer came back, it may or may not have been processed
+        OUTCOME_UNKNOWN
+    }
+
+    private int statusCode;
+    private long elapsedMillis;
+    private EInvoiceResponse response;
+    private String responseBody;
+    private String error;
+    private Failure failure;
+    private int attempts;
+
+    public SubmissionResult() {
+    }
+
+    public SubmissionResult(int statusCode, long elapsedMillis, EInvoiceResponse response, String responseBody, String error) {
+        this.statusCode = statusCode;
+        this.elapsedMillis = elapsedMillis;
+        this.response = response;
+        this.responseBody = responseBody;
+        this.error = error;
+        this.attempts = 1;
+    }
+
+    public SubmissionResult(Failure failure, String error) {
+        this(0, 0, null, null, error);
+        this.failure = failure;
+    }
+
+    public boolean isSuccessful() {
+        return statusCode / 100 == 2;
+    }
+
+    // 0 when no HTTP response was received, the reason is in error
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public EInvoiceResponse getResponse() {
+        return response;
+    }
+
+    public void setResponse(EInvoiceResponse response) {
+        this.response = response;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    public void setResponseBody(String responseBody) {
+        this.responseBody = responseBody;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    // null when an HTTP response was received
+    public Failure getFailure() {
+        return failure;
+    }
+
+    public void setFailure(Failure failure) {
+        this.failure = failure;
+    }
+}
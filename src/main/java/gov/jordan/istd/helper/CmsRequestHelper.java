@@ -2,6 +2,8 @@ package gov.jordan.istd.helper;
 
 import gov.jordan.istd.dto.CsrConfigDto;
 import gov.jordan.istd.dto.CsrResponseDto;
+import gov.jordan.istd.security.CryptoProviders;
+import gov.jordan.istd.utils.ECDSAUtil;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -20,10 +22,11 @@ import java.util.Base64;
 public class CmsRequestHelper {
 
     public static CsrResponseDto createCsr(CsrConfigDto config) throws Exception {
-        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-        keyGen.initialize(config.getKeySize());
-        KeyPair keyPair = keyGen.generateKeyPair();
+        return createCsr(config, generateKeyPair(config));
+    }
 
+    // the key pair must match the config's key algorithm, KeyPairPool hands out key pairs generated ahead for bulk CSRs
+    public static CsrResponseDto createCsr(CsrConfigDto config, KeyPair keyPair) throws Exception {
         // Create X500Name with explicit string to force exact order: CN, O, OU, SerialNumber, C
         String dnString = String.format("CN=%s,O=%s,OU=%s,SERIALNUMBER=%s,C=%s",
                 config.getEnName().trim(),
@@ -50,7 +53,7 @@ public class CmsRequestHelper {
         Extensions extensions = extGen.generate();
         builder.addAttribute(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest, extensions);
 
-        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate());
+        ContentSigner signer = createSigner(config, keyPair.getPrivate());
         PKCS10CertificationRequest csr = builder.build(signer);
 
         byte[] pkcs10Der = csr.getEncoded();
@@ -60,6 +63,24 @@ public class CmsRequestHelper {
         return new CsrResponseDto(pkcs10Der, privateKeyBytes, publicKeyBytes);
     }
 
+    // RSA with the configured size, or EC on the configured curve, which signs invoices far cheaper for the same security
+    public static KeyPair generateKeyPair(CsrConfigDto config) throws Exception {
+        if (CsrConfigDto.EC.equals(config.getKeyAlgorithm())) {
+            return ECDSAUtil.getKeyPair(config.getCurve());
+        }
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(config.getKeySize());
+        return keyGen.generateKeyPair();
+    }
+
+    private static ContentSigner createSigner(CsrConfigDto config, PrivateKey privateKey) throws Exception {
+        if (CsrConfigDto.EC.equals(config.getKeyAlgorithm())) {
+            // the JDK providers no longer support secp256k1, the key comes from BouncyCastle and is signed by it
+            return new JcaContentSignerBuilder("SHA256withECDSA").setProvider(CryptoProviders.getBouncyCastleProvider()).build(privateKey);
+        }
+        return new JcaContentSignerBuilder("SHA256withRSA").build(privateKey);
+    }
+
     private static void addSubjectKeyIdentifier(ExtensionsGenerator extGen, PublicKey publicKey) throws Exception {
         byte[] publicKeyBytes = publicKey.getEncoded();
 
@@ -1,6 +1,7 @@
 package gov.jordan.istd.helper;
 
     import gov.jordan.istd.dto.DigitalSignature;
+    import gov.jordan.istd.security.CryptoProviders;
     import org.apache.log4j.Logger;
     
     import java.nio.charset.StandardCharsets;
@@ -9,18 +10,22 @@ package gov.jordan.istd.helper;
     import java.util.Base64;
     
     public class DigitalSignatureHelper {
+        private static final String ECDSA = "SHA256withECDSA";
         private final Logger log = Logger.getLogger("DigitalSignatureHelper");
         
         public DigitalSignature getDigitalSignature(PrivateKey privateKey, String invoiceHash) {
             byte[] xmlHashingBytes = Base64.getDecoder().decode(invoiceHash.getBytes(StandardCharsets.UTF_8));
             byte[] digitalSignatureBytes = signWithPrivateKey(privateKey, xmlHashingBytes);
-            return new DigitalSignature(Base64.getEncoder().encodeToString(digitalSignatureBytes), xmlHashingBytes);
+            return new DigitalSignature(Base64.getEncoder().encodeToString(digitalSignatureBytes), xmlHashingBytes, digitalSignatureBytes);
         }
         
         private byte[] signWithPrivateKey(PrivateKey privateKey, byte[] messageHash) {
             try {
                 String algorithm = determineSignatureAlgorithm(privateKey);
-                Signature signature = Signature.getInstance(algorithm);
+                // SunEC dropped secp256k1 and signs P-256 slower than BouncyCastle, EC keys are always signed by the latter
+                Signature signature = ECDSA.equals(algorithm)
+                        ? CryptoProviders.getSignature(algorithm, CryptoProviders.getBouncyCastleProvider())
+                        : CryptoProviders.getSignature(algorithm);
                 signature.initSign(privateKey);
                 signature.update(messageHash);
                 return signature.sign();
@@ -37,7 +42,7 @@ package gov.jordan.istd.helper;
                     return "SHA256withRSA";
                 case "EC":
                 case "ECDSA":
-                    return "SHA256withECDSA";
+                    return ECDSA;
                 default:
                     log.warn("Unknown key algorithm: " + keyAlgorithm + ", defaulting to SHA256withRSA");
                     return "SHA256withRSA";
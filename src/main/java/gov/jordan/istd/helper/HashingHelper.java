@@ -1,60 +1,64 @@
 package gov.jordan.istd.helper;
 
 import gov.jordan.istd.loader.AppResources;
-import org.apache.log4j.Logger;
-import org.apache.xml.security.Init;
-import org.apache.xml.security.c14n.CanonicalizationException;
-import org.apache.xml.security.c14n.Canonicalizer;
-import org.apache.xml.security.c14n.InvalidCanonicalizerException;
-import org.xml.sax.SAXException;
-import javax.xml.parsers.ParserConfigurationException;
+import gov.jordan.istd.metrics.Histogram;
+import gov.jordan.istd.metrics.MetricsRegistry;
+import gov.jordan.istd.utils.CanonicalXmlHandler;
+import org.apache.commons.io.output.NullOutputStream;
+import org.xml.sax.ContentHandler;
+
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.util.Base64;
 
 public class HashingHelper {
-    private final Logger log=Logger.getLogger("HashingHelper");
+    private static final int BUFFER_SIZE = 8192;
+    // invoice.xsl, C14N and the digest run as a single pass, so they can only be timed together
+    private final Histogram hashTimer = MetricsRegistry.getInstance().timer("hash.invoice");
+
     public String getInvoiceHash(String xmlDocument, AppResources appResources) throws Exception {
-        Transformer transformer = getTransformer(appResources);
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        StreamResult xmlOutput = new StreamResult(byteArrayOutputStream);
-        StringReader stringReader = new StringReader(xmlDocument);
-        StreamSource streamSource = new StreamSource(stringReader);
+        return getInvoiceHash(new StreamSource(new StringReader(xmlDocument)), appResources);
+    }
 
-        transformer.transform(streamSource, xmlOutput);
+    public String getInvoiceHash(InputStream xmlDocument, AppResources appResources) throws Exception {
+        return getInvoiceHash(new StreamSource(xmlDocument), appResources);
+    }
 
-        String canonicalizedXml = canonicalizeXml(byteArrayOutputStream.toByteArray());
-        byte[] hash = hashStringToBytes(canonicalizedXml);
-        Base64.Encoder encoder = Base64.getEncoder();
-        return encoder.encodeToString(hash);
+    // invoice.xsl output is canonicalized (C14N 1.1) while it is produced and the canonical bytes go straight into the digest
+    private String getInvoiceHash(Source xmlDocument, AppResources appResources) throws Exception {
+        Transformer transformer = getTransformer(appResources);
+        return getCanonicalHash(handler -> transformer.transform(xmlDocument, new SAXResult(handler)));
     }
-    private synchronized String canonicalizeXml(byte[] xmlDocument) throws InvalidCanonicalizerException, CanonicalizationException, ParserConfigurationException, IOException, SAXException {
-        Init.init();
-        Canonicalizer canon = Canonicalizer.getInstance("http://www.w3.org/2006/12/xml-c14n11");
-        return new String(canon.canonicalize(xmlDocument));
+
+    // hash of the document whose SAX events are fed by the producer, used when the events do not come from invoice.xsl
+    String getCanonicalHash(SaxProducer producer) throws Exception {
+        long start = System.nanoTime();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new DigestOutputStream(NullOutputStream.INSTANCE, digest), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            producer.produce(new CanonicalXmlHandler(writer));
+        }
+        Base64.Encoder encoder = Base64.getEncoder();
+        String hash = encoder.encodeToString(digest.digest());
+        hashTimer.recordSince(start);
+        return hash;
     }
 
     private Transformer getTransformer(AppResources appResources){
-        Transformer transformer = appResources.getInvoiceXslTransformer();
-        transformer.setOutputProperty("encoding", "UTF-8");
-        transformer.setOutputProperty("indent", "no");
-        transformer.setOutputProperty("omit-xml-declaration", "yes");
-        return transformer;
+        return appResources.getInvoiceXslTransformer();
     }
 
-    private byte[] hashStringToBytes(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(input.getBytes(StandardCharsets.UTF_8));
-        } catch (Exception e) {
-            log.error("something went wrong while hashing xml document",e);
-        }
-        return null;
+    interface SaxProducer {
+        void produce(ContentHandler handler) throws Exception;
     }
 }
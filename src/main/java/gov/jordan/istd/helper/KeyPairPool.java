@@ -0,0 +1,79 @@
+package gov.jordan.istd.helper;
+
+import gov.jordan.istd.dto.CsrConfigDto;
+import org.apache.log4j.Logger;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Key pairs generated ahead of time by background threads, for building many CSRs. The generators start filling the pool
+ * as soon as it is created and stop once they have generated the requested number of key pairs, the pool never holds
+ * more than its capacity so a slow consumer only leaves the generators waiting, never memory piling up. RSA key
+ * generation is what takes time, taking a key pair out of a filled pool costs nothing.
+ */
+public class KeyPairPool implements AutoCloseable {
+    private static final long POLL_MILLIS = 500;
+    private final Logger log = Logger.getLogger("KeyPairPool");
+    private final CsrConfigDto config;
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final AtomicInteger remaining;
+    private final ExecutorService generators;
+    private volatile Exception failure;
+
+    public KeyPairPool(CsrConfigDto config, int count, int generatorThreads, int capacity) {
+        this.config = config;
+        this.keyPairs = new ArrayBlockingQueue<>(capacity);
+        this.remaining = new AtomicInteger(count);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.generators = Executors.newFixedThreadPool(generatorThreads, runnable -> {
+            Thread thread = new Thread(runnable, "key-pair-generator-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int index = 0; index < generatorThreads; index++) {
+            generators.execute(this::generate);
+        }
+    }
+
+    // the next generated key pair, waits while the generators are behind and fails if one of them failed
+    public KeyPair take() throws Exception {
+        while (true) {
+            KeyPair keyPair = keyPairs.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (keyPair != null) {
+                return keyPair;
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Key pair generation failed", failure);
+            }
+        }
+    }
+
+    public int size() {
+        return keyPairs.size();
+    }
+
+    @Override
+    public void close() {
+        generators.shutdownNow();
+    }
+
+    private void generate() {
+        try {
+            // every generator claims one key pair of the total before generating it, so no more are generated than asked
+            while (remaining.getAndDecrement() > 0) {
+                keyPairs.put(CmsRequestHelper.generateKeyPair(config));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to generate key pair", e);
+            failure = e;
+        }
+    }
+}
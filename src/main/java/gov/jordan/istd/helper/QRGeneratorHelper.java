@@ -1,15 +1,30 @@
 package gov.jordan.istd.helper;
 
-import com.payneteasy.tlv.BerTag;
-import com.payneteasy.tlv.BerTlvBuilder;
+import org.apache.log4j.Logger;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Base64;
+import java.util.Date;
+import java.util.TimeZone;
 
+/**
+ * Writes the QR code BER-TLV structure straight into a per-thread buffer, byte for byte what BerTlvBuilder produced:
+ * one byte tags 1 to 9, each followed by its short or long form length and value. The public key (tag 8) and the
+ * certificate signature (tag 9) only depend on the certificate, they are encoded once with {@link #encodeCertificateTail}
+ * and appended with a single copy.
+ */
 public class QRGeneratorHelper {
-    public String generateQrCode(String sellerName, String vatRegistrationNumber, String timeStamp, String invoiceTotal, String vatTotal, String hashedXml, byte[] publicKey, String signature, byte[] certificateSignature) {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+    private static final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private final Logger log = Logger.getLogger("QRGeneratorHelper");
 
-        BerTlvBuilder berTlvBuilder = new BerTlvBuilder();
+    public String generateQrCode(String sellerName, String vatRegistrationNumber, String timeStamp, String invoiceTotal, String vatTotal, String hashedXml, byte[] publicKey, String signature, byte[] certificateSignature) {
 
         // Decode the Base64 signature properly
         byte[] signatureBytes;
@@ -19,19 +34,161 @@ public class QRGeneratorHelper {
             // If signature is not Base64 encoded, use as is
             signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
         }
+        return generateQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal, vatTotal, hashedXml, signatureBytes,
+                encodeCertificateTail(publicKey, certificateSignature));
+    }
+
+    // signature is the raw signature and certificateTail the tags 8 and 9 from encodeCertificateTail
+    public String generateQrCode(String sellerName, String vatRegistrationNumber, String timeStamp, String invoiceTotal, String vatTotal, String hashedXml, byte[] signature, byte[] certificateTail) {
+        int length = textLength(sellerName) + textLength(vatRegistrationNumber) + textLength(timeStamp) + textLength(invoiceTotal)
+                + textLength(vatTotal) + textLength(hashedXml) + tlvLength(signature.length) + certificateTail.length;
+        byte[] buffer = buffers.get();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            buffers.set(buffer);
+        }
+        int position = writeText(buffer, 0, 1, sellerName);
+        position = writeText(buffer, position, 2, vatRegistrationNumber);
+        position = writeText(buffer, position, 3, timeStamp);
+        position = writeText(buffer, position, 4, invoiceTotal);
+        position = writeText(buffer, position, 5, vatTotal);
+        position = writeText(buffer, position, 6, hashedXml);
+        position = writeBytes(buffer, position, 7, signature);
+        System.arraycopy(certificateTail, 0, buffer, position, certificateTail.length);
+        ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(buffer, 0, length));
+        return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    // the QR timestamp (tag 3) from the invoice IssueDate and IssueTime
+    public String getTimestamp(String issueDate, String issueTime) throws ParseException {
+        String timeStamp;
+        if (issueTime == null) {
+            issueTime = "00:00:00";
+            log.warn("IssueTime element missing from invoice, using default time: " + issueTime);
+        }
+
+        if (issueTime.endsWith("Z")) {
+            issueTime = issueTime.replace("Z", "");
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+            Date dateTimeFormat = sdf.parse(issueDate + "T" + issueTime);
+            SimpleDateFormat ksaSdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            sdf.setTimeZone(TimeZone.getTimeZone("GMT + 3"));
+            timeStamp = ksaSdf.format(dateTimeFormat);
+        } else {
+            String stringDateTime = issueDate + "T" + issueTime;
+            LocalDateTime dateTimeFormat = LocalDateTime.parse(stringDateTime);
+            timeStamp = dateTimeFormatter.format(dateTimeFormat);
+        }
+        return timeStamp;
+    }
+
+    public static byte[] encodeCertificateTail(byte[] publicKey, byte[] certificateSignature) {
+        byte[] tail = new byte[tlvLength(publicKey.length) + tlvLength(certificateSignature.length)];
+        int position = writeBytes(tail, 0, 8, publicKey);
+        writeBytes(tail, position, 9, certificateSignature);
+        return tail;
+    }
+
+    private static int textLength(String text) {
+        return tlvLength(utf8Length(text));
+    }
+
+    private static int tlvLength(int valueLength) {
+        return 1 + lengthBytes(valueLength) + valueLength;
+    }
+
+    private static int lengthBytes(int valueLength) {
+        if (valueLength < 0x80) {
+            return 1;
+        } else if (valueLength < 0x100) {
+            return 2;
+        } else if (valueLength < 0x10000) {
+            return 3;
+        } else if (valueLength < 0x1000000) {
+            return 4;
+        }
+        throw new IllegalStateException("length [" + valueLength + "] out of range (0x1000000)");
+    }
+
+    private static int writeHeader(byte[] buffer, int position, int tag, int valueLength) {
+        buffer[position++] = (byte) tag;
+        switch (lengthBytes(valueLength)) {
+            case 1:
+                buffer[position++] = (byte) valueLength;
+                break;
+            case 2:
+                buffer[position++] = (byte) 0x81;
+                buffer[position++] = (byte) valueLength;
+                break;
+            case 3:
+                buffer[position++] = (byte) 0x82;
+                buffer[position++] = (byte) (valueLength >> 8);
+                buffer[position++] = (byte) valueLength;
+                break;
+            default:
+                buffer[position++] = (byte) 0x83;
+                buffer[position++] = (byte) (valueLength >> 16);
+                buffer[position++] = (byte) (valueLength >> 8);
+                buffer[position++] = (byte) valueLength;
+        }
+        return position;
+    }
 
-        // Build the BER-TLV structure with correct tag ordering
-        berTlvBuilder.addText(new BerTag(1), sellerName, StandardCharsets.UTF_8)
-                .addText(new BerTag(2), vatRegistrationNumber, StandardCharsets.UTF_8)
-                .addText(new BerTag(3), timeStamp, StandardCharsets.UTF_8)
-                .addText(new BerTag(4), invoiceTotal, StandardCharsets.UTF_8)
-                .addText(new BerTag(5), vatTotal, StandardCharsets.UTF_8)
-                .addText(new BerTag(6), hashedXml, StandardCharsets.UTF_8)
-                .addBytes(new BerTag(7), signatureBytes)
-                .addBytes(new BerTag(8), publicKey)
-                .addBytes(new BerTag(9), certificateSignature);
+    private static int writeBytes(byte[] buffer, int position, int tag, byte[] value) {
+        position = writeHeader(buffer, position, tag, value.length);
+        System.arraycopy(value, 0, buffer, position, value.length);
+        return position + value.length;
+    }
 
-        byte[] bytes = berTlvBuilder.buildArray();
-        return Base64.getEncoder().encodeToString(bytes);
+    private static int writeText(byte[] buffer, int position, int tag, String text) {
+        position = writeHeader(buffer, position, tag, utf8Length(text));
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    // unpaired surrogates become '?', as String.getBytes does
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 }
@@ -1,14 +1,23 @@
 package gov.jordan.istd.helper;
 
-import gov.jordan.istd.utils.XmlUtil;
+import gov.jordan.istd.dto.EInvoiceSigningResults;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Objects;
 
 public class RequesterGeneratorHelper {
+    private static final String ROOT_ELEMENT = "Invoice";
+    private static final String UUID_ELEMENT = "UUID";
+    private static final String[] INVOICE_HASH_PATH = {ROOT_ELEMENT, "UBLExtensions", "UBLExtension", "ExtensionContent",
+            "UBLDocumentSignatures", "SignatureInformation", "Signature", "SignedInfo", "Reference", "DigestValue"};
+    private static final XMLInputFactory inputFactory = createInputFactory();
     Logger log = Logger.getLogger("RequesterGeneratorHelper");
 
     public String generateEInvoiceRequest(String invoiceHash, String uuid, String singedXml) {
@@ -16,24 +25,75 @@ public class RequesterGeneratorHelper {
                 invoiceHash, uuid, Base64.getEncoder().encodeToString(singedXml.getBytes(StandardCharsets.UTF_8)));
     }
 
+    // the hash and UUID are the ones signing just produced, nothing is read back from the signed XML
+    public String generateEInvoiceRequest(EInvoiceSigningResults signingResults) {
+        return generateEInvoiceRequest(signingResults.getInvoiceHash(), signingResults.getInvoiceUUID(), signingResults.getSignedXml());
+    }
+
     public String generateEInvoiceRequest(String singedXml) {
         try {
-            Document document = XmlUtil.transform(singedXml);
-            String uuidValue = "";
-            NodeList uuidNodeList = XmlUtil.evaluateXpath(document, "/Invoice/UUID");
-            if (uuidNodeList != null) {
-                uuidValue = uuidNodeList.item(0).getFirstChild().getNodeValue();
-            }
-
-            NodeList invoiceHashNodeList = XmlUtil.evaluateXpath(document, "/Invoice/UBLExtensions/UBLExtension/ExtensionContent/UBLDocumentSignatures/SignatureInformation/Signature/SignedInfo/Reference/DigestValue");
-            String invoiceHashValue = "";
-            if (invoiceHashNodeList != null && invoiceHashNodeList.getLength() > 0) {
-                invoiceHashValue = invoiceHashNodeList.item(0).getFirstChild().getNodeValue();
+            String[] uuidAndInvoiceHash = readUuidAndInvoiceHash(singedXml);
+            if (Objects.isNull(uuidAndInvoiceHash[0])) {
+                log.error("failed to get invoice data, the invoice has no UUID");
+                return null;
             }
-            return generateEInvoiceRequest(invoiceHashValue, uuidValue, singedXml);
+            return generateEInvoiceRequest(Objects.toString(uuidAndInvoiceHash[1], ""), uuidAndInvoiceHash[0], singedXml);
         } catch (Exception e) {
             log.error("failed to get invoice data ", e);
         }
         return null;
     }
+
+    // elements are matched on their local names, whatever the prefixes. The signature is in the UBL extensions at the
+    // top of the invoice and the UUID follows shortly after, so reading stops long before the invoice lines
+    private String[] readUuidAndInvoiceHash(String signedXml) throws XMLStreamException {
+        String uuid = null;
+        String invoiceHash = null;
+        String[] path = new String[INVOICE_HASH_PATH.length];
+        int depth = 0;
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(signedXml));
+        try {
+            while (reader.hasNext() && (Objects.isNull(uuid) || Objects.isNull(invoiceHash))) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (depth < path.length) {
+                    path[depth] = reader.getLocalName();
+                }
+                depth++;
+                if (Objects.isNull(uuid) && depth == 2 && ROOT_ELEMENT.equals(path[0]) && UUID_ELEMENT.equals(path[1])) {
+                    uuid = reader.getElementText();
+                    depth--;
+                } else if (Objects.isNull(invoiceHash) && depth == INVOICE_HASH_PATH.length && isInvoiceHashPath(path)) {
+                    invoiceHash = reader.getElementText();
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new String[]{uuid, invoiceHash};
+    }
+
+    private boolean isInvoiceHashPath(String[] path) {
+        for (int i = 0; i < INVOICE_HASH_PATH.length; i++) {
+            if (!INVOICE_HASH_PATH[i].equals(path[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
 }
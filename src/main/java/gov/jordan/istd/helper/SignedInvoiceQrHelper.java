@@ -0,0 +1,200 @@
+package gov.jordan.istd.helper;
+
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.security.CryptoProviders;
+import gov.jordan.istd.utils.InvoiceNamespaces;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rebuilds the QR code of an invoice that is already signed from its own signature value, invoice digest and
+ * certificate, nothing is signed again so the QR is the one that was issued. The invoice is read once with StAX and
+ * the reading stops at the first invoice line, everything the QR needs comes before the lines.
+ */
+public class SignedInvoiceQrHelper {
+    private static final String INVOICE = "Invoice";
+    private static final String INVOICE_LINE = "InvoiceLine";
+    private static final String INVOICE_SIGNED_DATA = "invoiceSignedData";
+    private static final String QR_DOCUMENT_REFERENCE_ID = "QR";
+    private static final String SIGNATURE_VALUE_XPATH = SigningHelper.SIGNATURE_XPATH + "/ds:SignatureValue";
+    private static final String X509_CERTIFICATE_XPATH = SigningHelper.SIGNATURE_XPATH + "/ds:KeyInfo/ds:X509Data/ds:X509Certificate";
+    private static final String REFERENCE_XPATH = SigningHelper.SIGNATURE_XPATH + "/ds:SignedInfo/ds:Reference";
+    private static final String DIGEST_VALUE_XPATH = REFERENCE_XPATH + "/ds:DigestValue";
+    private static final String DOCUMENT_REFERENCE_XPATH = "/Invoice/cac:AdditionalDocumentReference";
+    private static final String DOCUMENT_REFERENCE_ID_XPATH = DOCUMENT_REFERENCE_XPATH + "/cbc:ID";
+    private static final String QR_CODE_XPATH = DOCUMENT_REFERENCE_XPATH + "/cac:Attachment/cbc:EmbeddedDocumentBinaryObject";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // a reprint run covers few devices, the tags 8 and 9 of each certificate are only encoded once
+    private static final int MAX_CACHED_CERTIFICATES = 64;
+    private static final XMLInputFactory inputFactory = createInputFactory();
+    private final Logger log = Logger.getLogger("SignedInvoiceQrHelper");
+    private final QRGeneratorHelper qrGeneratorHelper = new QRGeneratorHelper();
+    private final Map<String, String> prefixes = new HashMap<>();
+    private final Map<String, byte[]> certificateTails = new ConcurrentHashMap<>();
+    private final int maxDepth;
+
+    public SignedInvoiceQrHelper() {
+        InvoiceNamespaces.NAMESPACES.forEach((prefix, uri) -> prefixes.put(uri, prefix));
+        maxDepth = StringUtils.countMatches(DIGEST_VALUE_XPATH, '/');
+    }
+
+    public EInvoiceSigningResults readQrCode(File signedXmlFile) {
+        try {
+            SignedInvoice signedInvoice = scanInvoice(signedXmlFile);
+            if (StringUtils.isAnyBlank(signedInvoice.signatureValue, signedInvoice.invoiceHash, signedInvoice.certificate)) {
+                log.info(String.format("Invoice [%s] is not signed", signedXmlFile.getPath()));
+                return null;
+            }
+            Map<String, String> fields = signedInvoice.invoiceFields;
+            String timeStamp = qrGeneratorHelper.getTimestamp(fields.get(SigningHelper.ISSUE_DATE_XPATH), fields.get(SigningHelper.ISSUE_TIME_XPATH));
+            String qrCode = qrGeneratorHelper.generateQrCode(fields.get(SigningHelper.SELLER_NAME_XPATH),
+                    fields.get(SigningHelper.VAT_REGISTRATION_NUMBER_XPATH), timeStamp, fields.get(SigningHelper.INVOICE_TOTAL_XPATH),
+                    fields.get(SigningHelper.VAT_TOTAL_XPATH), signedInvoice.invoiceHash,
+                    Base64.getMimeDecoder().decode(signedInvoice.signatureValue), getCertificateTail(signedInvoice.certificate));
+            if (Objects.nonNull(signedInvoice.qrCode) && !signedInvoice.qrCode.equals(qrCode)) {
+                log.warn(String.format("The QR code in [%s] does not match the invoice signature", signedXmlFile.getPath()));
+                return null;
+            }
+            return new EInvoiceSigningResults(signedInvoice.invoiceHash, signedInvoice.signatureValue, qrCode, null,
+                    fields.get(SigningHelper.UUID_XPATH));
+        } catch (Exception e) {
+            log.error(String.format("Failed to read the QR code of [%s]", signedXmlFile.getPath()), e);
+        }
+        return null;
+    }
+
+    private SignedInvoice scanInvoice(File signedXmlFile) throws Exception {
+        SignedInvoice signedInvoice = new SignedInvoice();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(signedXmlFile), BUFFER_SIZE)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            try {
+                List<String> path = new ArrayList<>();
+                String referenceId = null;
+                boolean qrReference = false;
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth <= maxDepth) {
+                            path.remove(path.size() - 1);
+                        }
+                        depth--;
+                        continue;
+                    }
+                    if (event != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    depth++;
+                    if (depth == 2 && INVOICE_LINE.equals(reader.getLocalName())) {
+                        break;
+                    }
+                    if (depth > maxDepth) {
+                        continue;
+                    }
+                    path.add(depth == 1 ? INVOICE : getPrefixedName(reader));
+                    String xpath = "/" + String.join("/", path);
+                    if (REFERENCE_XPATH.equals(xpath)) {
+                        referenceId = reader.getAttributeValue(null, "Id");
+                    } else if (DOCUMENT_REFERENCE_XPATH.equals(xpath)) {
+                        qrReference = false;
+                    }
+                    String text = readText(reader, xpath, signedInvoice, referenceId, qrReference);
+                    if (Objects.isNull(text)) {
+                        continue;
+                    }
+                    // reading the text consumed the end of the element
+                    path.remove(path.size() - 1);
+                    depth--;
+                    if (DOCUMENT_REFERENCE_ID_XPATH.equals(xpath)) {
+                        qrReference = QR_DOCUMENT_REFERENCE_ID.equals(StringUtils.normalizeSpace(text));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return signedInvoice;
+    }
+
+    // keeps the text of the elements the QR code is built from, the first one of each like the signing XPaths
+    private String readText(XMLStreamReader reader, String xpath, SignedInvoice signedInvoice, String referenceId, boolean qrReference) throws XMLStreamException {
+        if (SigningHelper.INVOICE_FIELD_XPATHS.contains(xpath)) {
+            if (signedInvoice.invoiceFields.containsKey(xpath)) {
+                return null;
+            }
+            String text = reader.getElementText();
+            signedInvoice.invoiceFields.put(xpath, text);
+            return text;
+        } else if (SIGNATURE_VALUE_XPATH.equals(xpath) && Objects.isNull(signedInvoice.signatureValue)) {
+            signedInvoice.signatureValue = reader.getElementText().trim();
+            return signedInvoice.signatureValue;
+        } else if (X509_CERTIFICATE_XPATH.equals(xpath) && Objects.isNull(signedInvoice.certificate)) {
+            signedInvoice.certificate = reader.getElementText().trim();
+            return signedInvoice.certificate;
+        } else if (DIGEST_VALUE_XPATH.equals(xpath) && INVOICE_SIGNED_DATA.equals(referenceId) && Objects.isNull(signedInvoice.invoiceHash)) {
+            signedInvoice.invoiceHash = reader.getElementText().trim();
+            return signedInvoice.invoiceHash;
+        } else if (DOCUMENT_REFERENCE_ID_XPATH.equals(xpath)) {
+            return reader.getElementText();
+        } else if (QR_CODE_XPATH.equals(xpath) && qrReference && Objects.isNull(signedInvoice.qrCode)) {
+            signedInvoice.qrCode = reader.getElementText().trim();
+            return signedInvoice.qrCode;
+        }
+        return null;
+    }
+
+    private byte[] getCertificateTail(String certificateText) throws GeneralSecurityException {
+        byte[] certificateTail = certificateTails.get(certificateText);
+        if (Objects.nonNull(certificateTail)) {
+            return certificateTail;
+        }
+        X509Certificate certificate = (X509Certificate) CryptoProviders.getCertificateFactory()
+                .generateCertificate(new ByteArrayInputStream(Base64.getMimeDecoder().decode(certificateText)));
+        certificateTail = QRGeneratorHelper.encodeCertificateTail(certificate.getPublicKey().getEncoded(), certificate.getSignature());
+        if (certificateTails.size() >= MAX_CACHED_CERTIFICATES) {
+            certificateTails.clear();
+        }
+        certificateTails.put(certificateText, certificateTail);
+        return certificateTail;
+    }
+
+    private String getPrefixedName(XMLStreamReader reader) {
+        String prefix = prefixes.get(StringUtils.defaultString(reader.getNamespaceURI()));
+        return Objects.isNull(prefix) ? "{" + reader.getNamespaceURI() + "}" + reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private static class SignedInvoice {
+        private final Map<String, String> invoiceFields = new HashMap<>();
+        private String signatureValue;
+        private String invoiceHash;
+        private String certificate;
+        private String qrCode;
+    }
+}
@@ -0,0 +1,75 @@
+package gov.jordan.istd.helper;
+
+import gov.jordan.istd.security.CryptoProviders;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/**
+ * The signing key and certificate of one device with everything derived from the certificate worked out once: the
+ * stripped certificate text for the X509Certificate element, the certificate digest, issuer and serial for the signed
+ * properties, and the public key and certificate signature already encoded as the last QR code tags. Immutable, so one
+ * session can be shared by all the threads signing for that device.
+ */
+public final class SignerSession {
+    private final PrivateKey privateKey;
+    private final String certificateAsString;
+    private final String certificateText;
+    private final X509Certificate certificate;
+    private final String certificateHashing;
+    private final String issuerName;
+    private final String serialNumber;
+    private final byte[] qrCertificateTail;
+
+    public SignerSession(PrivateKey privateKey, String certificateAsString) throws GeneralSecurityException {
+        this.privateKey = privateKey;
+        this.certificateAsString = certificateAsString;
+        certificateText = certificateAsString.replace("-----BEGIN CERTIFICATE-----", "").replace("-----END CERTIFICATE-----", "").replace("\n", "").replace("\r", "");
+        byte[] certificateBytes = certificateText.getBytes(StandardCharsets.UTF_8);
+        certificate = (X509Certificate) CryptoProviders.getCertificateFactory()
+                .generateCertificate(new ByteArrayInputStream(Base64.getMimeDecoder().decode(certificateBytes)));
+        byte[] certificateHash = MessageDigest.getInstance("SHA-256").digest(certificateBytes);
+        certificateHashing = Base64.getEncoder().encodeToString(SigningHelper.bytesToHex(certificateHash).getBytes(StandardCharsets.UTF_8));
+        issuerName = certificate.getIssuerDN().getName();
+        serialNumber = certificate.getSerialNumber().toString();
+        qrCertificateTail = QRGeneratorHelper.encodeCertificateTail(certificate.getPublicKey().getEncoded(), certificate.getSignature());
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    // true when the session was built from this key and certificate, so callers passing them on every invoice reuse it
+    boolean isFor(PrivateKey privateKey, String certificateAsString) {
+        return this.privateKey == privateKey && this.certificateAsString.equals(certificateAsString);
+    }
+
+    String getCertificateText() {
+        return certificateText;
+    }
+
+    String getCertificateHashing() {
+        return certificateHashing;
+    }
+
+    String getIssuerName() {
+        return issuerName;
+    }
+
+    String getSerialNumber() {
+        return serialNumber;
+    }
+
+    byte[] getQrCertificateTail() {
+        return qrCertificateTail;
+    }
+}
@@ -2,146 +2,305 @@ package gov.jordan.istd.helper;
 
 import gov.jordan.istd.dto.DigitalSignature;
 import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.io.WriterHelper;
 import gov.jordan.istd.loader.AppResources;
+import gov.jordan.istd.metrics.Histogram;
+import gov.jordan.istd.metrics.MetricsRegistry;
+import gov.jordan.istd.utils.InvoiceNamespaces;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.dom4j.*;
 import org.dom4j.io.SAXReader;
 import org.xml.sax.SAXException;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.Security;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class SigningHelper {
+    private static final String CBC_NAMESPACE = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+    private static final String UBL_EXTENSIONS = "UBLExtensions";
+    private static final String INVOICE = "Invoice";
+    private static final String SIGNATURE = "Signature";
+    private static final String ADDITIONAL_DOCUMENT_REFERENCE = "AdditionalDocumentReference";
+    private static final String ACCOUNTING_SUPPLIER_PARTY = "AccountingSupplierParty";
+    private static final String QR_DOCUMENT_REFERENCE_ID = "QR";
+    private static final String STREAMING_THRESHOLD_PROPERTY = "signing.streaming.threshold.mb";
+    private static final long DEFAULT_STREAMING_THRESHOLD_MB = 10;
+    static final String UUID_XPATH = "/Invoice/cbc:UUID";
+    static final String SELLER_NAME_XPATH = "/Invoice/cac:AccountingSupplierParty/cac:Party/cac:PartyLegalEntity/cbc:RegistrationName";
+    static final String VAT_REGISTRATION_NUMBER_XPATH = "/Invoice/cac:AccountingSupplierParty/cac:Party/cac:PartyTaxScheme/cbc:CompanyID";
+    static final String INVOICE_TOTAL_XPATH = "/Invoice/cac:LegalMonetaryTotal/cbc:PayableAmount";
+    static final String VAT_TOTAL_XPATH = "/Invoice/cac:TaxTotal/cbc:TaxAmount";
+    static final String ISSUE_DATE_XPATH = "/Invoice/cbc:IssueDate";
+    static final String ISSUE_TIME_XPATH = "/Invoice/cbc:IssueTime";
+    static final List<String> INVOICE_FIELD_XPATHS = List.of(UUID_XPATH, SELLER_NAME_XPATH, VAT_REGISTRATION_NUMBER_XPATH,
+            INVOICE_TOTAL_XPATH, VAT_TOTAL_XPATH, ISSUE_DATE_XPATH, ISSUE_TIME_XPATH);
+    static final String SIGNATURE_XPATH = "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature";
+    private static final String SIGNED_PROPERTIES_XPATH = SIGNATURE_XPATH + "/ds:Object/xades:QualifyingProperties/xades:SignedProperties";
+    private static final String SIGNED_SIGNATURE_PROPERTIES_XPATH = SIGNED_PROPERTIES_XPATH + "/xades:SignedSignatureProperties";
+    // compiled once, the XPaths only read their namespaces once set, so all threads share them
+    private static final Map<String, XPath> INVOICE_FIELDS = compileXPaths(INVOICE_FIELD_XPATHS);
+    private static final XPath SIGNED_PROPERTIES = compileXPath(SIGNED_PROPERTIES_XPATH);
+    private static final XPath CERTIFICATE_DIGEST = compileXPath(SIGNED_SIGNATURE_PROPERTIES_XPATH + "/xades:SigningCertificate/xades:Cert/xades:CertDigest/ds:DigestValue");
+    private static final XPath SIGNING_TIME = compileXPath(SIGNED_SIGNATURE_PROPERTIES_XPATH + "/xades:SigningTime");
+    private static final XPath ISSUER_NAME = compileXPath(SIGNED_SIGNATURE_PROPERTIES_XPATH + "/xades:SigningCertificate/xades:Cert/xades:IssuerSerial/ds:X509IssuerName");
+    private static final XPath SERIAL_NUMBER = compileXPath(SIGNED_SIGNATURE_PROPERTIES_XPATH + "/xades:SigningCertificate/xades:Cert/xades:IssuerSerial/ds:X509SerialNumber");
+    private static final XPath SIGNATURE_VALUE = compileXPath(SIGNATURE_XPATH + "/ds:SignatureValue");
+    private static final XPath X509_CERTIFICATE = compileXPath(SIGNATURE_XPATH + "/ds:KeyInfo/ds:X509Data/ds:X509Certificate");
+    private static final XPath SIGNED_PROPERTIES_DIGEST = compileXPath(SIGNATURE_XPATH + "/ds:SignedInfo/ds:Reference[@URI='#xadesSignedProperties']/ds:DigestValue");
+    private static final XPath INVOICE_DIGEST = compileXPath(SIGNATURE_XPATH + "/ds:SignedInfo/ds:Reference[@Id='invoiceSignedData']/ds:DigestValue");
+    private static final XPath QR_CODE = compileXPath("/Invoice/cac:AdditionalDocumentReference[cbc:ID='QR']/cac:Attachment/cbc:EmbeddedDocumentBinaryObject");
     private final Logger log = Logger.getLogger("SigningHelper");
     private final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
     private final HashingHelper hashingHelper;
     private final DigitalSignatureHelper digitalSignatureHelper;
     private final QRGeneratorHelper qrGeneratorHelper;
     private final AppResources appResources;
+    private final StreamingSigningHelper streamingSigningHelper;
+    private final long streamingThreshold;
+    private final Histogram totalTimer;
+    private final Histogram parseTimer;
+    private final Histogram prepareTimer;
+    private final Histogram fieldsTimer;
+    private final Histogram certificateTimer;
+    private final Histogram signatureTimer;
+    private final Histogram signedPropertiesTimer;
+    private final Histogram ublExtensionsTimer;
+    private final Histogram qrTimer;
+    private final Histogram serializeTimer;
+    private final LongAdder signedCounter;
+    private final LongAdder failedCounter;
+    // the session of the last key and certificate passed in, callers signing many invoices pass the same ones every time
+    private volatile SignerSession lastSession;
 
     public SigningHelper() {
         hashingHelper = new HashingHelper();
         digitalSignatureHelper = new DigitalSignatureHelper();
         qrGeneratorHelper = new QRGeneratorHelper();
-        appResources = new AppResources();
+        appResources = AppResources.getInstance();
+        streamingSigningHelper = new StreamingSigningHelper(this, hashingHelper, appResources);
+        streamingThreshold = getStreamingThreshold();
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        totalTimer = metricsRegistry.timer("sign.total");
+        parseTimer = metricsRegistry.timer("sign.parse");
+        prepareTimer = metricsRegistry.timer("sign.prepare");
+        fieldsTimer = metricsRegistry.timer("sign.fields");
+        certificateTimer = metricsRegistry.timer("sign.certificate");
+        signatureTimer = metricsRegistry.timer("sign.signature");
+        signedPropertiesTimer = metricsRegistry.timer("sign.signed_properties");
+        ublExtensionsTimer = metricsRegistry.timer("sign.ubl_extensions");
+        qrTimer = metricsRegistry.timer("sign.qr");
+        serializeTimer = metricsRegistry.timer("sign.serialize");
+        signedCounter = metricsRegistry.counter("sign.success");
+        failedCounter = metricsRegistry.counter("sign.failure");
     }
 
     public EInvoiceSigningResults signEInvoice(String xmlDocument, PrivateKey privateKey, String certificateAsString) {
+        SignerSession signerSession = getSignerSession(privateKey, certificateAsString);
+        if (Objects.isNull(signerSession)) {
+            failedCounter.increment();
+            return null;
+        }
+        return signEInvoice(xmlDocument, signerSession);
+    }
+
+    public EInvoiceSigningResults signEInvoice(String xmlDocument, SignerSession signerSession) {
+        long start = System.nanoTime();
         try {
             String invoiceHash = hashingHelper.getInvoiceHash(xmlDocument, appResources);
-            System.out.println( "Invoice Hash: " + invoiceHash);
-            Security.addProvider(new BouncyCastleProvider());
-            certificateAsString = certificateAsString.replace("-----BEGIN CERTIFICATE-----", "").replace("-----END CERTIFICATE-----", "").replace("\n", "").replace("\r", "");
-            byte[] certificateBytes = certificateAsString.getBytes(StandardCharsets.UTF_8);
-            final Base64.Decoder decoder = Base64.getMimeDecoder();
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(decoder.decode(certificateBytes));
-            byte[] certificateBytesCopy = Arrays.copyOf(certificateBytes, certificateBytes.length);
-            String certificateCopy = new String(certificateBytesCopy);
-            CertificateFactory certificatefactory = CertificateFactory.getInstance("X.509");
-            X509Certificate certificate = (X509Certificate) certificatefactory.generateCertificate(byteArrayInputStream);
-            DigitalSignature digitalSignature = digitalSignatureHelper.getDigitalSignature(privateKey, invoiceHash);
-            System.out.println("Digital Signature: " + digitalSignature.getDigitalSignature());
-            xmlDocument = transformXML(xmlDocument);
+            long stageStart = System.nanoTime();
             Document document = getXmlDocument(xmlDocument);
-            Map<String, String> nameSpacesMap = getNameSpacesMap();
-            String certificateHashing = encodeBase64(
-                    bytesToHex(hashStringToBytes(certificateAsString.getBytes(StandardCharsets.UTF_8)))
-                            .getBytes(StandardCharsets.UTF_8));
-            log.info("Certificate Hashing: " + certificateHashing);
-            String signedPropertiesHashing = populateSignedSignatureProperties(document, nameSpacesMap,
-                    certificateHashing, getCurrentTimestamp(), certificate.getIssuerDN().getName(),
-                    certificate.getSerialNumber().toString());
-
-            log.info("Signed Properties Hashing: " + signedPropertiesHashing);
-            populateUBLExtensions(document, nameSpacesMap, digitalSignature.getDigitalSignature(),
-                    signedPropertiesHashing, encodeBase64(digitalSignature.getXmlHashing()),
-                    certificateCopy);
-
-
-            String qrCode = populateQRCode(document, nameSpacesMap,
-                    certificate, digitalSignature.getDigitalSignature(),
-                    invoiceHash);
-
-            String uuid = readUUID(xmlDocument);
-            return new EInvoiceSigningResults(invoiceHash, digitalSignature.getDigitalSignature(), qrCode, document.asXML(), uuid);
+            parseTimer.recordSince(stageStart);
+            stageStart = System.nanoTime();
+            prepareSignatureElements(document);
+            prepareTimer.recordSince(stageStart);
+            stageStart = System.nanoTime();
+            Map<String, String> invoiceFields = readInvoiceFields(document);
+            fieldsTimer.recordSince(stageStart);
+            EInvoiceSigningResults signingResults = signDocument(document, invoiceHash, invoiceFields, signerSession);
+            stageStart = System.nanoTime();
+            signingResults.setSignedXml(document.asXML());
+            serializeTimer.recordSince(stageStart);
+            totalTimer.recordSince(start);
+            signedCounter.increment();
+            return signingResults;
         } catch (Exception e) {
             log.error("Something went wrong while signing the invoice", e);
         }
+        failedCounter.increment();
         return null;
     }
 
-    private Map<String, String> getNameSpacesMap() {
-        Map<String, String> nameSpaces = new HashMap<>();
-        nameSpaces.put("cac", "urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2");
-        nameSpaces.put("cbc", "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2");
-        nameSpaces.put("ext", "urn:oasis:names:specification:ubl:schema:xsd:CommonExtensionComponents-2");
-        nameSpaces.put("sig", "urn:oasis:names:specification:ubl:schema:xsd:CommonSignatureComponents-2");
-        nameSpaces.put("sac", "urn:oasis:names:specification:ubl:schema:xsd:SignatureAggregateComponents-2");
-        nameSpaces.put("sbc", "urn:oasis:names:specification:ubl:schema:xsd:SignatureBasicComponents-2");
-        nameSpaces.put("ds", "http://www.w3.org/2000/09/xmldsig#");
-        nameSpaces.put("xades", "http://uri.etsi.org/01903/v1.3.2#");
-        return nameSpaces;
+    // invoices above the streaming threshold are signed without ever being loaded in memory, the signed xml is only written to the output file
+    public EInvoiceSigningResults signEInvoice(File xmlFile, File outputFile, PrivateKey privateKey, String certificateAsString) {
+        SignerSession signerSession = getSignerSession(privateKey, certificateAsString);
+        if (Objects.isNull(signerSession)) {
+            failedCounter.increment();
+            return null;
+        }
+        return signEInvoice(xmlFile, outputFile, signerSession);
     }
 
-    private synchronized String transformXML(String xmlDocument) throws TransformerException {
-        xmlDocument = transformXml(xmlDocument, appResources.getRemoveElementXslTransformer());
-        xmlDocument = transformXml(xmlDocument, appResources.getAddUBLElementTransformer());
-        xmlDocument = xmlDocument.replace("UBL-TO-BE-REPLACED", appResources.getUblXml());
-        xmlDocument = transformXml(xmlDocument, appResources.getAddQRElementTransformer());
+    public EInvoiceSigningResults signEInvoice(File xmlFile, File outputFile, SignerSession signerSession) {
+        if (xmlFile.length() > streamingThreshold) {
+            log.info(String.format("Invoice [%s] is larger than [%d] bytes, signing it in streaming mode", xmlFile.getPath(), streamingThreshold));
+            return streamingSigningHelper.signEInvoice(xmlFile, outputFile, signerSession);
+        }
+        String xmlDocument = ReaderHelper.readFileAsString(xmlFile.getPath());
+        if (StringUtils.isBlank(xmlDocument)) {
+            log.info(String.format("XML file [%s] is empty", xmlFile.getPath()));
+            return null;
+        }
+        EInvoiceSigningResults signingResults = signEInvoice(xmlDocument, signerSession);
+        if (Objects.isNull(signingResults) || !WriterHelper.writeFile(outputFile.getPath(), signingResults.getSignedXml())) {
+            return null;
+        }
+        return signingResults;
+    }
 
-        xmlDocument = xmlDocument.replace("QR-TO-BE-REPLACED", appResources.getQrXml());
+    // fills the signature elements of the document, which is either the whole invoice or only its root with the signature elements
+    EInvoiceSigningResults signDocument(Document document, String invoiceHash, Map<String, String> invoiceFields, SignerSession signerSession) throws Exception {
+        String certificateHashing = signerSession.getCertificateHashing();
+        long stageStart = System.nanoTime();
+        DigitalSignature digitalSignature = digitalSignatureHelper.getDigitalSignature(signerSession.getPrivateKey(), invoiceHash);
+        signatureTimer.recordSince(stageStart);
+        if (log.isDebugEnabled()) {
+            log.debug("Certificate Hashing: " + certificateHashing);
+        }
+        stageStart = System.nanoTime();
+        String signedPropertiesHashing = populateSignedSignatureProperties(document,
+                certificateHashing, getCurrentTimestamp(), signerSession.getIssuerName(),
+                signerSession.getSerialNumber());
+        signedPropertiesTimer.recordSince(stageStart);
 
-        xmlDocument = transformXml(xmlDocument, appResources.getAddSignatureElementTransformer());
-        xmlDocument = xmlDocument.replace("SIGN-TO-BE-REPLACED", appResources.getSignatureXml());
+        if (log.isDebugEnabled()) {
+            log.debug("Signed Properties Hashing: " + signedPropertiesHashing);
+        }
+        stageStart = System.nanoTime();
+        populateUBLExtensions(document, digitalSignature.getDigitalSignature(),
+                signedPropertiesHashing, encodeBase64(digitalSignature.getXmlHashing()),
+                signerSession.getCertificateText());
+        ublExtensionsTimer.recordSince(stageStart);
+
+        stageStart = System.nanoTime();
+        String qrCode = populateQRCode(document, invoiceFields,
+                signerSession, digitalSignature.getDigitalSignatureBytes(),
+                invoiceHash);
+        qrTimer.recordSince(stageStart);
+
+        return new EInvoiceSigningResults(invoiceHash, digitalSignature.getDigitalSignature(), qrCode, null, invoiceFields.get(UUID_XPATH));
+    }
+
+    // reuses the last session when given the same key and certificate, otherwise builds and keeps a new one
+    private SignerSession getSignerSession(PrivateKey privateKey, String certificateAsString) {
+        SignerSession signerSession = lastSession;
+        if (signerSession != null && signerSession.isFor(privateKey, certificateAsString)) {
+            return signerSession;
+        }
+        long start = System.nanoTime();
+        try {
+            signerSession = new SignerSession(privateKey, certificateAsString);
+            certificateTimer.recordSince(start);
+        } catch (Exception e) {
+            log.error("Failed to read the signing certificate", e);
+            return null;
+        }
+        lastSession = signerSession;
+        return signerSession;
+    }
 
-        return xmlDocument;
+    private Map<String, String> readInvoiceFields(Document document) {
+        Map<String, String> invoiceFields = new HashMap<>();
+        for (String fieldXpath : INVOICE_FIELD_XPATHS) {
+            invoiceFields.put(fieldXpath, getNodeXmlTextValue(document, fieldXpath));
+        }
+        return invoiceFields;
     }
 
-    private synchronized String transformXml(String xmlDocument, Transformer transformer) throws TransformerException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        StreamResult xmlOutput = new StreamResult(bos);
-        StringReader stringReader = new StringReader(xmlDocument);
-        StreamSource streamSource = new StreamSource(stringReader);
-        transformer.transform(streamSource, xmlOutput);
-        return bos.toString(StandardCharsets.UTF_8);
+    Map<String, String> getNameSpacesMap() {
+        return InvoiceNamespaces.NAMESPACES;
+    }
+
+    private static XPath compileXPath(String xpathExpression) {
+        XPath xpath = DocumentHelper.createXPath(xpathExpression);
+        xpath.setNamespaceURIs(InvoiceNamespaces.NAMESPACES);
+        return xpath;
+    }
+
+    private static Map<String, XPath> compileXPaths(List<String> xpathExpressions) {
+        Map<String, XPath> xpaths = new HashMap<>();
+        for (String xpathExpression : xpathExpressions) {
+            xpaths.put(xpathExpression, compileXPath(xpathExpression));
+        }
+        return Collections.unmodifiableMap(xpaths);
+    }
+
+    private void prepareSignatureElements(Document document) {
+        Element invoice = document.getRootElement();
+        removeSignatureElements(invoice);
+        invoice.content().add(0, appResources.getUblElement());
+        List<Node> content = invoice.content();
+        for (int i = 0; i < content.size(); i++) {
+            Node node = content.get(i);
+            if (node instanceof Element && ACCOUNTING_SUPPLIER_PARTY.equals(((Element) node).getName())) {
+                content.add(i, appResources.getSignatureElement());
+                content.add(i, appResources.getQrElement());
+                break;
+            }
+        }
+    }
+
+    // what removeElements.xsl removed: UBLExtensions and the QR AdditionalDocumentReference at any depth, but only
+    // the Signature elements that are children of the invoice itself
+    private void removeSignatureElements(Element parent) {
+        boolean invoice = parent.isRootElement() && INVOICE.equals(parent.getName());
+        List<Node> content = parent.content();
+        for (int i = content.size() - 1; i >= 0; i--) {
+            if (!(content.get(i) instanceof Element)) {
+                continue;
+            }
+            Element element = (Element) content.get(i);
+            if (UBL_EXTENSIONS.equals(element.getName()) || (invoice && SIGNATURE.equals(element.getName())) || isQRDocumentReference(element)) {
+                content.remove(i);
+            } else {
+                removeSignatureElements(element);
+            }
+        }
+    }
+
+    private boolean isQRDocumentReference(Element element) {
+        if (!ADDITIONAL_DOCUMENT_REFERENCE.equals(element.getName())) {
+            return false;
+        }
+        Element id = element.element(QName.get("ID", CBC_NAMESPACE));
+        return id != null && QR_DOCUMENT_REFERENCE_ID.equals(StringUtils.normalizeSpace(id.getText()));
     }
 
     private Document getXmlDocument(String xmlDocument) throws SAXException, DocumentException {
         SAXReader xmlReader = new SAXReader();
-        Document doc = xmlReader.read(new ByteArrayInputStream(xmlDocument.getBytes(StandardCharsets.UTF_8)));
         xmlReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
         xmlReader.setFeature("http://xml.org/sax/features/external-general-entities", false);
         xmlReader.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
         xmlReader.setFeature("http://xml.org/sax/features/namespaces", true);
-        return doc;
+        return xmlReader.read(new StringReader(xmlDocument));
     }
 
-    private String getNodeXmlValue(Document document, Map<String, String> nameSpaces) {
-        XPath xpath = DocumentHelper.createXPath("/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:Object/xades:QualifyingProperties/xades:SignedProperties");
-        xpath.setNamespaceURIs(nameSpaces);
-        Node node = xpath.selectSingleNode(document);
+    private String getNodeXmlValue(Document document) {
+        Node node = SIGNED_PROPERTIES.selectSingleNode(document);
         return node != null ? node.asXML() : null;
     }
 
-    private String bytesToHex(byte[] hash) {
+    static String bytesToHex(byte[] hash) {
         StringBuilder hexString = new StringBuilder(2 * hash.length);
         for (byte b : hash) {
             String hex = Integer.toHexString(255 & b);
@@ -162,30 +321,27 @@ public class SigningHelper {
         return digest.digest(toBeHashed);
     }
 
-    private String populateSignedSignatureProperties(Document document, Map<String, String> nameSpacesMap, String publicKeyHashing, String signatureTimestamp, String x509IssuerName, String serialNumber) throws NoSuchAlgorithmException {
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:Object/xades:QualifyingProperties/xades:SignedProperties/xades:SignedSignatureProperties/xades:SigningCertificate/xades:Cert/xades:CertDigest/ds:DigestValue", publicKeyHashing);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:Object/xades:QualifyingProperties/xades:SignedProperties/xades:SignedSignatureProperties/xades:SigningTime", signatureTimestamp);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:Object/xades:QualifyingProperties/xades:SignedProperties/xades:SignedSignatureProperties/xades:SigningCertificate/xades:Cert/xades:IssuerSerial/ds:X509IssuerName", x509IssuerName);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:Object/xades:QualifyingProperties/xades:SignedProperties/xades:SignedSignatureProperties/xades:SigningCertificate/xades:Cert/xades:IssuerSerial/ds:X509SerialNumber", serialNumber);
-        String signedSignatureElement = getNodeXmlValue(document, nameSpacesMap);
-       System.out.println("signedSignatureElement: " + signedSignatureElement);
+    private String populateSignedSignatureProperties(Document document, String publicKeyHashing, String signatureTimestamp, String x509IssuerName, String serialNumber) throws NoSuchAlgorithmException {
+        populateXmlAttributeValue(document, CERTIFICATE_DIGEST, publicKeyHashing);
+        populateXmlAttributeValue(document, SIGNING_TIME, signatureTimestamp);
+        populateXmlAttributeValue(document, ISSUER_NAME, x509IssuerName);
+        populateXmlAttributeValue(document, SERIAL_NUMBER, serialNumber);
+        String signedSignatureElement = getNodeXmlValue(document);
         assert signedSignatureElement != null;
         return encodeBase64(bytesToHex(hashStringToBytes(signedSignatureElement.getBytes(StandardCharsets.UTF_8))).getBytes(StandardCharsets.UTF_8));
     }
 
-    private void populateXmlAttributeValue(Document document, Map<String, String> nameSpaces, String attributeXpath, String newValue) {
-        XPath xpath = DocumentHelper.createXPath(attributeXpath);
-        xpath.setNamespaceURIs(nameSpaces);
+    private void populateXmlAttributeValue(Document document, XPath xpath, String newValue) {
         List<Node> nodes = xpath.selectNodes(document);
         nodes.stream().map(node -> (Element) node)
                 .forEach((element) -> element.setText(newValue));
     }
 
-    private void populateUBLExtensions(Document document, Map<String, String> nameSpacesMap, String digitalSignature, String signedPropertiesHashing, String xmlHashing, String certificate) {
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:SignatureValue", digitalSignature);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:KeyInfo/ds:X509Data/ds:X509Certificate", certificate);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:SignedInfo/ds:Reference[@URI='#xadesSignedProperties']/ds:DigestValue", signedPropertiesHashing);
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/ext:UBLExtensions/ext:UBLExtension/ext:ExtensionContent/sig:UBLDocumentSignatures/sac:SignatureInformation/ds:Signature/ds:SignedInfo/ds:Reference[@Id='invoiceSignedData']/ds:DigestValue", xmlHashing);
+    private void populateUBLExtensions(Document document, String digitalSignature, String signedPropertiesHashing, String xmlHashing, String certificate) {
+        populateXmlAttributeValue(document, SIGNATURE_VALUE, digitalSignature);
+        populateXmlAttributeValue(document, X509_CERTIFICATE, certificate);
+        populateXmlAttributeValue(document, SIGNED_PROPERTIES_DIGEST, signedPropertiesHashing);
+        populateXmlAttributeValue(document, INVOICE_DIGEST, xmlHashing);
     }
 
     private String getCurrentTimestamp() {
@@ -193,46 +349,27 @@ public class SigningHelper {
         return dateTimeFormatter.format(localDateTime);
     }
 
-    private String populateQRCode(Document document, Map<String, String> nameSpacesMap, X509Certificate certificate, String signature, String hashedXml) throws ParseException {
-        String timeStamp, sellerName = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cac:AccountingSupplierParty/cac:Party/cac:PartyLegalEntity/cbc:RegistrationName");
-        String vatRegistrationNumber = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cac:AccountingSupplierParty/cac:Party/cac:PartyTaxScheme/cbc:CompanyID");
-        String invoiceTotal = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cac:LegalMonetaryTotal/cbc:PayableAmount");
-        String vatTotal = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cac:TaxTotal/cbc:TaxAmount");
-        String issueDate = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cbc:IssueDate");
-        String issueTime = getNodeXmlTextValue(document, nameSpacesMap, "/Invoice/cbc:IssueTime");
-
-        if (issueTime == null) {
-            issueTime = "00:00:00";
-            log.warn("IssueTime element missing from invoice, using default time: " + issueTime);
-        }
+    private String populateQRCode(Document document, Map<String, String> invoiceFields, SignerSession signerSession, byte[] signature, String hashedXml) throws ParseException {
+        String sellerName = invoiceFields.get(SELLER_NAME_XPATH);
+        String vatRegistrationNumber = invoiceFields.get(VAT_REGISTRATION_NUMBER_XPATH);
+        String invoiceTotal = invoiceFields.get(INVOICE_TOTAL_XPATH);
+        String vatTotal = invoiceFields.get(VAT_TOTAL_XPATH);
+        String issueDate = invoiceFields.get(ISSUE_DATE_XPATH);
+        String issueTime = invoiceFields.get(ISSUE_TIME_XPATH);
 
-        if (issueTime.endsWith("Z")) {
-            issueTime = issueTime.replace("Z", "");
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-            sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
-            Date dateTimeFormat = sdf.parse(issueDate + "T" + issueTime);
-            SimpleDateFormat ksaSdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-            sdf.setTimeZone(TimeZone.getTimeZone("GMT + 3"));
-            timeStamp = ksaSdf.format(dateTimeFormat);
-        } else {
-            String stringDateTime = issueDate + "T" + issueTime;
-            LocalDateTime dateTimeFormat = LocalDateTime.parse(stringDateTime);
-            timeStamp = dateTimeFormatter.format(dateTimeFormat);
+        String timeStamp = qrGeneratorHelper.getTimestamp(issueDate, issueTime);
+        if (log.isDebugEnabled()) {
+            log.debug("Final Timestamp: [" + timeStamp + "]");
         }
 
-        log.info("Final Timestamp: [" + timeStamp + "]");
-
-        String qrCode = qrGeneratorHelper.generateQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal, vatTotal, hashedXml, certificate
-                .getPublicKey().getEncoded(), signature, certificate
-                .getSignature());
-        populateXmlAttributeValue(document, nameSpacesMap, "/Invoice/cac:AdditionalDocumentReference[cbc:ID='QR']/cac:Attachment/cbc:EmbeddedDocumentBinaryObject", qrCode);
+        String qrCode = qrGeneratorHelper.generateQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal, vatTotal, hashedXml, signature,
+                signerSession.getQrCertificateTail());
+        populateXmlAttributeValue(document, QR_CODE, qrCode);
         return qrCode;
     }
 
-    private String getNodeXmlTextValue(Document document, Map<String, String> nameSpaces, String attributeXpath) {
-        XPath xpath = DocumentHelper.createXPath(attributeXpath);
-        xpath.setNamespaceURIs(nameSpaces);
-        Node node = xpath.selectSingleNode(document);
+    private String getNodeXmlTextValue(Document document, String attributeXpath) {
+        Node node = INVOICE_FIELDS.get(attributeXpath).selectSingleNode(document);
         if (node == null) {
             log.warn("XML node not found for path: " + attributeXpath);
             return null;
@@ -240,8 +377,20 @@ public class SigningHelper {
         return node.getText();
     }
 
+    private long getStreamingThreshold() {
+        String threshold = System.getProperty(STREAMING_THRESHOLD_PROPERTY);
+        if (StringUtils.isBlank(threshold)) {
+            return DEFAULT_STREAMING_THRESHOLD_MB * 1024 * 1024;
+        }
+        if (!threshold.matches("\\d+")) {
+            log.warn(String.format("Invalid %s [%s], using default [%d] MB", STREAMING_THRESHOLD_PROPERTY, threshold, DEFAULT_STREAMING_THRESHOLD_MB));
+            return DEFAULT_STREAMING_THRESHOLD_MB * 1024 * 1024;
+        }
+        return Long.parseLong(threshold) * 1024 * 1024;
+    }
+
     public String readUUID(String xmlDocument) throws Exception {
         Document document = getXmlDocument(xmlDocument);
-        return getNodeXmlTextValue(document, getNameSpacesMap(), "/Invoice/cbc:UUID");
+        return getNodeXmlTextValue(document, UUID_XPATH);
     }
 }
@@ -0,0 +1,487 @@
+package gov.jordan.istd.helper;
+
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.loader.AppResources;
+import gov.jordan.istd.metrics.Histogram;
+import gov.jordan.istd.metrics.MetricsRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import org.dom4j.Attribute;
+import org.dom4j.Comment;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.QName;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signs invoices too large to be parsed into a dom4j document. The invoice is read twice with StAX: the first pass
+ * feeds the canonical hash (with the same elements removed as invoice.xsl) and collects the fields needed by the QR
+ * code, the second pass copies the invoice to the output file while splicing in the signature elements, which are
+ * the only part built with dom4j.
+ */
+class StreamingSigningHelper {
+    private static final String CBC_NAMESPACE = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+    private static final String INVOICE = "Invoice";
+    private static final String UBL_EXTENSIONS = "UBLExtensions";
+    private static final String SIGNATURE = "Signature";
+    private static final String ADDITIONAL_DOCUMENT_REFERENCE = "AdditionalDocumentReference";
+    private static final String ACCOUNTING_SUPPLIER_PARTY = "AccountingSupplierParty";
+    private static final String ID = "ID";
+    private static final String QR_DOCUMENT_REFERENCE_ID = "QR";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final XMLInputFactory inputFactory = createInputFactory();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+    private final Logger log = Logger.getLogger("StreamingSigningHelper");
+    private final SigningHelper signingHelper;
+    private final HashingHelper hashingHelper;
+    private final AppResources appResources;
+    private final Map<String, String> prefixes = new HashMap<>();
+    private final int fieldsDepth;
+    private final Histogram totalTimer = MetricsRegistry.getInstance().timer("sign.stream.total");
+    private final Histogram writeTimer = MetricsRegistry.getInstance().timer("sign.stream.write");
+    private final LongAdder signedCounter = MetricsRegistry.getInstance().counter("sign.stream.success");
+    private final LongAdder failedCounter = MetricsRegistry.getInstance().counter("sign.stream.failure");
+
+    StreamingSigningHelper(SigningHelper signingHelper, HashingHelper hashingHelper, AppResources appResources) {
+        this.signingHelper = signingHelper;
+        this.hashingHelper = hashingHelper;
+        this.appResources = appResources;
+        signingHelper.getNameSpacesMap().forEach((prefix, uri) -> prefixes.put(uri, prefix));
+        fieldsDepth = SigningHelper.INVOICE_FIELD_XPATHS.stream().mapToInt(xpath -> StringUtils.countMatches(xpath, '/')).max().orElse(0);
+    }
+
+    EInvoiceSigningResults signEInvoice(File xmlFile, File outputFile, SignerSession signerSession) {
+        File temporaryFile = new File(outputFile.getAbsoluteFile().getParentFile(), outputFile.getName() + ".tmp");
+        long start = System.nanoTime();
+        try {
+            InvoiceScan invoiceScan = new InvoiceScan();
+            String invoiceHash = hashingHelper.getCanonicalHash(handler -> scanInvoice(xmlFile, handler, invoiceScan));
+            Document signatureDocument = createSignatureDocument(invoiceScan.rootName);
+            EInvoiceSigningResults signingResults = signingHelper.signDocument(signatureDocument, invoiceHash,
+                    invoiceScan.invoiceFields, signerSession);
+            long writeStart = System.nanoTime();
+            writeSignedInvoice(xmlFile, temporaryFile, signatureDocument.getRootElement(), invoiceScan.qrReferences);
+            Files.move(temporaryFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            writeTimer.recordSince(writeStart);
+            totalTimer.recordSince(start);
+            signedCounter.increment();
+            return signingResults;
+        } catch (Exception e) {
+            log.error(String.format("Something went wrong while signing the invoice [%s]", xmlFile.getPath()), e);
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                log.warn(String.format("Failed to delete [%s]", temporaryFile.getPath()));
+            }
+        }
+        failedCounter.increment();
+        return null;
+    }
+
+    // first pass, the invoice without its signature elements goes to the hash handler while the QR fields are collected
+    private void scanInvoice(File xmlFile, ContentHandler hashHandler, InvoiceScan invoiceScan) throws Exception {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            // an AdditionalDocumentReference is only known to be the QR one once its ID is read, so its events wait in a buffer
+            SaxEventBuffer referenceBuffer = new SaxEventBuffer();
+            List<String> path = new ArrayList<>();
+            String field = null;
+            StringBuilder fieldText = new StringBuilder();
+            int depth = 0;
+            int skipDepth = 0;
+            int referenceDepth = 0;
+            boolean qrReference = false;
+            boolean referenceId = false;
+            int referenceCount = 0;
+            StringBuilder referenceIdText = new StringBuilder();
+            ContentHandler handler = hashHandler;
+            hashHandler.startDocument();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (skipDepth > 0) {
+                            break;
+                        }
+                        String localName = reader.getLocalName();
+                        if (depth == 1) {
+                            invoiceScan.rootName = QName.get(localName, StringUtils.defaultString(reader.getPrefix()), StringUtils.defaultString(reader.getNamespaceURI()));
+                        } else if (UBL_EXTENSIONS.equals(localName) || SIGNATURE.equals(localName)) {
+                            skipDepth = depth;
+                            break;
+                        }
+                        if (referenceDepth == 0 && ADDITIONAL_DOCUMENT_REFERENCE.equals(localName)) {
+                            referenceDepth = depth;
+                            referenceCount++;
+                            qrReference = false;
+                            handler = referenceBuffer;
+                        } else if (referenceDepth > 0 && depth == referenceDepth + 1 && ID.equals(localName) && CBC_NAMESPACE.equals(reader.getNamespaceURI())) {
+                            referenceId = true;
+                            referenceIdText.setLength(0);
+                        }
+                        if (depth <= fieldsDepth) {
+                            path.add(depth == 1 ? INVOICE : getPrefixedName(reader));
+                            String xpath = "/" + String.join("/", path);
+                            if (invoiceScan.isMissing(xpath)) {
+                                field = xpath;
+                                fieldText.setLength(0);
+                            }
+                        }
+                        startElement(reader, handler);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (skipDepth > 0) {
+                            if (skipDepth == depth) {
+                                skipDepth = 0;
+                            }
+                            depth--;
+                            break;
+                        }
+                        handler.endElement(reader.getNamespaceURI(), reader.getLocalName(), getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+                        if (referenceId && depth == referenceDepth + 1) {
+                            referenceId = false;
+                            qrReference |= QR_DOCUMENT_REFERENCE_ID.equals(StringUtils.normalizeSpace(referenceIdText.toString()));
+                        }
+                        if (depth == referenceDepth) {
+                            if (qrReference) {
+                                invoiceScan.qrReferences.add(referenceCount);
+                            } else {
+                                referenceBuffer.replay(hashHandler);
+                            }
+                            referenceBuffer.clear();
+                            referenceDepth = 0;
+                            handler = hashHandler;
+                        }
+                        if (depth <= fieldsDepth) {
+                            String xpath = "/" + String.join("/", path);
+                            if (xpath.equals(field)) {
+                                invoiceScan.invoiceFields.put(field, fieldText.toString());
+                                field = null;
+                            }
+                            path.remove(path.size() - 1);
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (skipDepth > 0 || depth == 0) {
+                            break;
+                        }
+                        if (Objects.nonNull(field) && depth == path.size()) {
+                            fieldText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        if (referenceId && depth == referenceDepth + 1) {
+                            referenceIdText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        handler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        if (skipDepth == 0) {
+                            handler.processingInstruction(reader.getPITarget(), reader.getPIData());
+                        }
+                        break;
+                    case XMLStreamConstants.DTD:
+                        throw new XMLStreamException("DOCTYPE is not allowed in invoices");
+                    default:
+                        break;
+                }
+            }
+            hashHandler.endDocument();
+            reader.close();
+        }
+        for (String xpath : SigningHelper.INVOICE_FIELD_XPATHS) {
+            if (invoiceScan.isMissing(xpath)) {
+                log.warn("XML node not found for path: " + xpath);
+            }
+        }
+    }
+
+    private void startElement(XMLStreamReader reader, ContentHandler handler) throws SAXException {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            handler.startPrefixMapping(StringUtils.defaultString(reader.getNamespacePrefix(i)), StringUtils.defaultString(reader.getNamespaceURI(i)));
+        }
+        AttributesImpl attributes = new AttributesImpl();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String localName = reader.getAttributeLocalName(i);
+            attributes.addAttribute(StringUtils.defaultString(reader.getAttributeNamespace(i)), localName,
+                    getQualifiedName(reader.getAttributePrefix(i), localName), "CDATA", reader.getAttributeValue(i));
+        }
+        handler.startElement(StringUtils.defaultString(reader.getNamespaceURI()), reader.getLocalName(),
+                getQualifiedName(reader.getPrefix(), reader.getLocalName()), attributes);
+    }
+
+    // only the invoice root and the signature elements, it gets the same values as the elements of a parsed invoice
+    private Document createSignatureDocument(QName rootName) {
+        Element invoice = DocumentHelper.createElement(Objects.requireNonNull(rootName, "XML document has no root element"));
+        invoice.add(appResources.getUblElement());
+        invoice.add(appResources.getQrElement());
+        invoice.add(appResources.getSignatureElement());
+        return DocumentHelper.createDocument(invoice);
+    }
+
+    // second pass, the invoice is copied without its old signature elements and with the new ones at the same places as SigningHelper puts them
+    private void writeSignedInvoice(File xmlFile, File outputFile, Element signatureInvoice, Set<Integer> qrReferences) throws Exception {
+        List<Element> signatureElements = signatureInvoice.elements();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE);
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE)) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            int depth = 0;
+            int skipDepth = 0;
+            int referenceDepth = 0;
+            int referenceCount = 0;
+            boolean signatureWritten = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (skipDepth > 0) {
+                            break;
+                        }
+                        String localName = reader.getLocalName();
+                        if (depth > 1 && (UBL_EXTENSIONS.equals(localName) || SIGNATURE.equals(localName))) {
+                            skipDepth = depth;
+                            break;
+                        }
+                        if (referenceDepth == 0 && ADDITIONAL_DOCUMENT_REFERENCE.equals(localName)) {
+                            if (qrReferences.contains(++referenceCount)) {
+                                skipDepth = depth;
+                                break;
+                            }
+                            referenceDepth = depth;
+                        }
+                        if (depth == 2 && !signatureWritten && ACCOUNTING_SUPPLIER_PARTY.equals(localName)) {
+                            writeElement(writer, signatureElements.get(1));
+                            writeElement(writer, signatureElements.get(2));
+                            signatureWritten = true;
+                        }
+                        copyStartElement(reader, writer);
+                        if (depth == 1) {
+                            writeElement(writer, signatureElements.get(0));
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (skipDepth > 0) {
+                            if (skipDepth == depth) {
+                                skipDepth = 0;
+                            }
+                        } else {
+                            writer.writeEndElement();
+                            if (depth == referenceDepth) {
+                                referenceDepth = 0;
+                            }
+                        }
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (skipDepth == 0 && depth > 0) {
+                            writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        if (skipDepth == 0 && depth > 0) {
+                            writer.writeCData(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        if (skipDepth == 0) {
+                            writer.writeComment(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        if (skipDepth == 0) {
+                            writer.writeProcessingInstruction(reader.getPITarget(), StringUtils.defaultString(reader.getPIData()));
+                        }
+                        break;
+                    case XMLStreamConstants.DTD:
+                        throw new XMLStreamException("DOCTYPE is not allowed in invoices");
+                    default:
+                        break;
+                }
+            }
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+            reader.close();
+        }
+    }
+
+    private void copyStartElement(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartElement(StringUtils.defaultString(reader.getPrefix()), reader.getLocalName(), StringUtils.defaultString(reader.getNamespaceURI()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            writeNamespace(writer, StringUtils.defaultString(reader.getNamespacePrefix(i)), StringUtils.defaultString(reader.getNamespaceURI(i)));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            if (StringUtils.isEmpty(prefix)) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(prefix, reader.getAttributeNamespace(i), reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    private void writeElement(XMLStreamWriter writer, Element element) throws XMLStreamException {
+        // the writer binds the element prefix as soon as the element is started, so the missing declarations are found before
+        Map<String, String> missingNamespaces = new LinkedHashMap<>();
+        addIfMissing(writer, missingNamespaces, element.getNamespace());
+        for (Namespace namespace : element.declaredNamespaces()) {
+            addIfMissing(writer, missingNamespaces, namespace);
+        }
+        for (Attribute attribute : element.attributes()) {
+            if (StringUtils.isNotEmpty(attribute.getNamespacePrefix())) {
+                addIfMissing(writer, missingNamespaces, attribute.getNamespace());
+            }
+        }
+        writer.writeStartElement(element.getNamespacePrefix(), element.getName(), element.getNamespaceURI());
+        for (Map.Entry<String, String> namespace : missingNamespaces.entrySet()) {
+            writeNamespace(writer, namespace.getKey(), namespace.getValue());
+        }
+        for (Attribute attribute : element.attributes()) {
+            if (StringUtils.isEmpty(attribute.getNamespacePrefix())) {
+                writer.writeAttribute(attribute.getName(), attribute.getValue());
+            } else {
+                writer.writeAttribute(attribute.getNamespacePrefix(), attribute.getNamespaceURI(), attribute.getName(), attribute.getValue());
+            }
+        }
+        for (Node node : element.content()) {
+            if (node instanceof Element) {
+                writeElement(writer, (Element) node);
+            } else if (node instanceof Comment) {
+                writer.writeComment(node.getText());
+            } else if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+                writer.writeCharacters(node.getText());
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private void addIfMissing(XMLStreamWriter writer, Map<String, String> missingNamespaces, Namespace namespace) {
+        if (Namespace.NO_NAMESPACE.equals(namespace) && StringUtils.isEmpty(writer.getNamespaceContext().getNamespaceURI(""))) {
+            return;
+        }
+        if (!namespace.getURI().equals(StringUtils.defaultString(writer.getNamespaceContext().getNamespaceURI(namespace.getPrefix())))) {
+            missingNamespaces.putIfAbsent(namespace.getPrefix(), namespace.getURI());
+        }
+    }
+
+    private void writeNamespace(XMLStreamWriter writer, String prefix, String uri) throws XMLStreamException {
+        writer.setPrefix(prefix, uri);
+        if (prefix.isEmpty()) {
+            writer.writeDefaultNamespace(uri);
+        } else {
+            writer.writeNamespace(prefix, uri);
+        }
+    }
+
+    // the element name as written in SigningHelper xpaths
+    private String getPrefixedName(XMLStreamReader reader) {
+        String prefix = prefixes.get(StringUtils.defaultString(reader.getNamespaceURI()));
+        return Objects.isNull(prefix) ? "{" + reader.getNamespaceURI() + "}" + reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        return StringUtils.isEmpty(prefix) ? localName : prefix + ":" + localName;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private static class InvoiceScan {
+        private final Map<String, String> invoiceFields = new HashMap<>();
+        private final Set<Integer> qrReferences = new HashSet<>();
+        private QName rootName;
+
+        private boolean isMissing(String xpath) {
+            return SigningHelper.INVOICE_FIELD_XPATHS.contains(xpath) && !invoiceFields.containsKey(xpath);
+        }
+    }
+
+    // SAX events of one element kept aside until it is known whether they are part of the hash
+    private static class SaxEventBuffer extends DefaultHandler {
+        private final List<SaxEvent> events = new ArrayList<>();
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            events.add(handler -> handler.startPrefixMapping(prefix, uri));
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            Attributes copy = new AttributesImpl(attributes);
+            events.add(handler -> handler.startElement(uri, localName, qName, copy));
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            events.add(handler -> handler.endElement(uri, localName, qName));
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            char[] copy = Arrays.copyOfRange(ch, start, start + length);
+            events.add(handler -> handler.characters(copy, 0, copy.length));
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            events.add(handler -> handler.processingInstruction(target, data));
+        }
+
+        private void replay(ContentHandler handler) throws SAXException {
+            for (SaxEvent event : events) {
+                event.replay(handler);
+            }
+        }
+
+        private void clear() {
+            events.clear();
+        }
+    }
+
+    private interface SaxEvent {
+        void replay(ContentHandler handler) throws SAXException;
+    }
+}
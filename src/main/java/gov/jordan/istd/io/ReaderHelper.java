@@ -4,6 +4,13 @@
     import org.apache.log4j.Logger;
     import java.io.File;
     import java.nio.charset.StandardCharsets;
+    import java.nio.file.FileSystems;
+    import java.nio.file.PathMatcher;
+    import java.nio.file.Paths;
+    import java.util.ArrayList;
+    import java.util.Arrays;
+    import java.util.Comparator;
+    import java.util.List;
     import java.util.Objects;
     
     public class ReaderHelper {
@@ -33,4 +40,27 @@
                 return null;
             }
         }
+    
+        public static List<File> listFiles(String directoryOrGlob) {
+            File directory = new File(directoryOrGlob);
+            PathMatcher matcher;
+            if (directory.isDirectory()) {
+                matcher = FileSystems.getDefault().getPathMatcher("glob:*.xml");
+            } else {
+                File parent = directory.getAbsoluteFile().getParentFile();
+                if (Objects.isNull(parent) || !parent.isDirectory()) {
+                    log.error(String.format("input directory of [%s] does not exist", directoryOrGlob));
+                    return new ArrayList<>();
+                }
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + directory.getName());
+                directory = parent;
+            }
+            File[] files = directory.listFiles(file -> file.isFile() && matcher.matches(Paths.get(file.getName())));
+            if (Objects.isNull(files)) {
+                return new ArrayList<>();
+            }
+            List<File> result = new ArrayList<>(Arrays.asList(files));
+            result.sort(Comparator.comparing(File::getName));
+            return result;
+        }
     }
@@ -1,94 +1,113 @@
 package gov.jordan.istd.loader;
 
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
 import org.xml.sax.SAXException;
-import javax.xml.XMLConstants;
+
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.validation.SchemaFactory;
 import java.io.BufferedReader;
-import java.io.File;
+import java.io.StringReader;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class AppResources {
+    // the xml fragments use the prefixes declared on the invoice root, so they are parsed inside a wrapper declaring them
+    private static final String FRAGMENT_WRAPPER = "<fragment"
+            + " xmlns:ext=\"urn:oasis:names:specification:ubl:schema:xsd:CommonExtensionComponents-2\""
+            + " xmlns:cac=\"urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2\""
+            + " xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">%s</fragment>";
+    private static AppResources appResources;
     private final AppResourceLoader resourceLoader;
-    private Transformer invoiceXslTransformer;
-    private Transformer removeElementXslTransformer;
-    private Transformer addUBLElementTransformer;
-
-    private Transformer addQRElementTransformer;
-
-    private Transformer addSignatureElementTransformer;
+    private Templates invoiceXslTemplates;
     private String ublXml;
     private String qrXml;
     private String signatureXml;
-    public AppResources() {
+
+    // Templates are thread safe, Transformers are not, so every thread gets its own Transformer
+    private final ThreadLocal<Transformer> invoiceXslTransformer = ThreadLocal.withInitial(() -> newInvoiceTransformer(invoiceXslTemplates));
+    // dom4j trees are not safe for concurrent reads either, so every thread copies from its own parsed fragments
+    private final ThreadLocal<Element> ublElement = ThreadLocal.withInitial(() -> parseFragment(ublXml));
+    private final ThreadLocal<Element> qrElement = ThreadLocal.withInitial(() -> parseFragment(qrXml));
+    private final ThreadLocal<Element> signatureElement = ThreadLocal.withInitial(() -> parseFragment(signatureXml));
+
+    private AppResources() {
         this.resourceLoader = new AppResourceLoader();
-        setTransformers();
+        setTemplates();
         setXmlsValues();
     }
 
+    public static synchronized AppResources getInstance() {
+        if (Objects.isNull(appResources)) {
+            appResources = new AppResources();
+        }
+        return appResources;
+    }
+
     private void setXmlsValues() {
         ublXml = new BufferedReader(resourceLoader.getInputStreamReader("xml/ubl.xml")).lines().collect(Collectors.joining("\n"));
         qrXml = new BufferedReader(resourceLoader.getInputStreamReader("xml/qr.xml")).lines().collect(Collectors.joining("\n"));
         signatureXml = new BufferedReader(resourceLoader.getInputStreamReader("xml/signature.xml")).lines().collect(Collectors.joining("\n"));
     }
 
-
-    private void setTransformers() {
+    private void setTemplates() {
         try {
             TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            this.invoiceXslTransformer = transformerFactory.newTransformer(resourceLoader.getStreamResource("invoice.xsl"));
-            this.removeElementXslTransformer = transformerFactory.newTransformer(resourceLoader.getStreamResource("xslt/removeElements.xsl"));
-            touchTransformer(removeElementXslTransformer);
-            this.addUBLElementTransformer = transformerFactory.newTransformer(resourceLoader.getStreamResource("xslt/addUBLElement.xsl"));
-            touchTransformer(addUBLElementTransformer);
-            this.addQRElementTransformer = transformerFactory.newTransformer(resourceLoader.getStreamResource("xslt/addQRElement.xsl"));
-            touchTransformer(addQRElementTransformer);
-            this.addSignatureElementTransformer = transformerFactory.newTransformer(resourceLoader.getStreamResource("xslt/addSignatureElement.xsl"));
-            touchTransformer(addSignatureElementTransformer);
-
+            this.invoiceXslTemplates = transformerFactory.newTemplates(resourceLoader.getStreamResource("invoice.xsl"));
         } catch (TransformerConfigurationException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void touchTransformer(Transformer transformer) {
-        transformer.setOutputProperty("encoding", "UTF-8");
-        transformer.setOutputProperty("indent", "no");
+    private Element parseFragment(String xml) {
+        try {
+            SAXReader xmlReader = new SAXReader();
+            xmlReader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return xmlReader.read(new StringReader(String.format(FRAGMENT_WRAPPER, xml))).getRootElement().elements().get(0);
+        } catch (DocumentException | SAXException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-
-    public Transformer getInvoiceXslTransformer() {
-        return invoiceXslTransformer;
+    private Transformer newInvoiceTransformer(Templates templates) {
+        Transformer transformer = newTransformer(templates);
+        transformer.setOutputProperty("omit-xml-declaration", "yes");
+        return transformer;
     }
 
-    public Transformer getRemoveElementXslTransformer() {
-        return removeElementXslTransformer;
+    private Transformer newTransformer(Templates templates) {
+        try {
+            Transformer transformer = templates.newTransformer();
+            touchTransformer(transformer);
+            return transformer;
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    public Transformer getAddUBLElementTransformer() {
-        return addUBLElementTransformer;
+    private void touchTransformer(Transformer transformer) {
+        transformer.setOutputProperty("encoding", "UTF-8");
+        transformer.setOutputProperty("indent", "no");
     }
 
-    public Transformer getAddQRElementTransformer() {
-        return addQRElementTransformer;
-    }
 
-    public Transformer getAddSignatureElementTransformer() {
-        return addSignatureElementTransformer;
+    public Transformer getInvoiceXslTransformer() {
+        return invoiceXslTransformer.get();
     }
 
-    public String getUblXml() {
-        return ublXml;
+    public Element getUblElement() {
+        return ublElement.get().createCopy();
     }
 
-    public String getQrXml() {
-        return qrXml;
+    public Element getQrElement() {
+        return qrElement.get().createCopy();
     }
 
-    public String getSignatureXml() {
-        return signatureXml;
+    public Element getSignatureElement() {
+        return signatureElement.get().createCopy();
     }
 
 }
@@ -0,0 +1,114 @@
+package gov.jordan.istd.metrics;
+
+import gov.jordan.istd.utils.JsonUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide stage timers and event counters. Callers keep the Histogram or LongAdder they get from here in a field,
+ * so the hot path never goes through the maps.
+ */
+public class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static MetricsRegistry metricsRegistry;
+    private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (Objects.isNull(metricsRegistry)) {
+            metricsRegistry = new MetricsRegistry();
+        }
+        return metricsRegistry;
+    }
+
+    public Histogram timer(String stage) {
+        return timers.computeIfAbsent(stage, name -> new Histogram());
+    }
+
+    public LongAdder counter(String event) {
+        return counters.computeIfAbsent(event, name -> new LongAdder());
+    }
+
+    public boolean isEmpty() {
+        return timers.values().stream().allMatch(timer -> timer.snapshot().getCount() == 0)
+                && counters.values().stream().allMatch(counter -> counter.sum() == 0);
+    }
+
+    // Prometheus text exposition format 0.0.4, stage timers are summaries in seconds
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# HELP fotara_stage_seconds Time spent in each stage\n");
+        builder.append("# TYPE fotara_stage_seconds summary\n");
+        Map<String, Histogram.Snapshot> snapshots = snapshots();
+        snapshots.forEach((stage, snapshot) -> {
+            for (double quantile : QUANTILES) {
+                builder.append(String.format(Locale.ROOT, "fotara_stage_seconds{stage=\"%s\",quantile=\"%s\"} %s\n",
+                        stage, quantile, seconds(snapshot.getPercentile(quantile))));
+            }
+            builder.append(String.format(Locale.ROOT, "fotara_stage_seconds_sum{stage=\"%s\"} %s\n", stage, seconds(snapshot.getSum())));
+            builder.append(String.format(Locale.ROOT, "fotara_stage_seconds_count{stage=\"%s\"} %d\n", stage, snapshot.getCount()));
+        });
+        builder.append("# HELP fotara_stage_max_seconds Longest time spent in each stage\n");
+        builder.append("# TYPE fotara_stage_max_seconds gauge\n");
+        snapshots.forEach((stage, snapshot) -> builder.append(String.format(Locale.ROOT,
+                "fotara_stage_max_seconds{stage=\"%s\"} %s\n", stage, seconds(snapshot.getMax()))));
+        builder.append("# HELP fotara_events_total Number of times each event happened\n");
+        builder.append("# TYPE fotara_events_total counter\n");
+        new TreeMap<>(counters).forEach((event, counter) -> builder.append(String.format(Locale.ROOT,
+                "fotara_events_total{event=\"%s\"} %d\n", event, counter.sum())));
+        return builder.toString();
+    }
+
+    // stage timers in milliseconds and counters, meant for the end of a CLI run
+    public String toJson() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        snapshots().forEach((stage, snapshot) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", snapshot.getCount());
+            values.put("p50Ms", millis(snapshot.getPercentile(0.5)));
+            values.put("p95Ms", millis(snapshot.getPercentile(0.95)));
+            values.put("p99Ms", millis(snapshot.getPercentile(0.99)));
+            values.put("maxMs", millis(snapshot.getMax()));
+            values.put("totalMs", millis(snapshot.getSum()));
+            stages.put(stage, values);
+        });
+        Map<String, Long> events = new TreeMap<>();
+        counters.forEach((event, counter) -> events.put(event, counter.sum()));
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("stages", stages);
+        metrics.put("events", events);
+        return JsonUtils.toJson(metrics);
+    }
+
+    private Map<String, Histogram.Snapshot> snapshots() {
+        Map<String, Histogram.Snapshot> snapshots = new TreeMap<>();
+        timers.forEach((stage, timer) -> {
+            Histogram.Snapshot snapshot = timer.snapshot();
+            if (snapshot.getCount() > 0) {
+                snapshots.put(stage, snapshot);
+            }
+        });
+        return snapshots;
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / NANOS_PER_SECOND);
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / NANOS_PER_MILLI * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,365 @@
+package gov.jordan.istd.outbox;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Durable queue of signed invoices waiting to be sent to Fotara.
+ * <p>
+ * outbox.journal holds the entries back to back, each with a checksum, and is only appended to. outbox.index has a
+ * fixed 16 byte slot per entry (journal offset, record length and state) so marking an entry sent or rejected is a one
+ * byte write. An entry is in the journal and the index, both forced to disk, before enqueue returns. On open, a torn
+ * record at the end of the journal is cut off and journal records missing from the index are added back as pending.
+ * State changes are forced in batches, a crash can therefore lose the last few of them and those entries are sent
+ * again: delivery is at least once.
+ * <p>
+ * Only the client id of an entry is stored, never its secret key: whoever flushes the outbox provides the secret key of
+ * each client. The directory and both files are created readable by their owner only, since they hold signed invoices.
+ * <p>
+ * Entries whose submission may or may not have been processed by Fotara are kept as unresolved, they are never sent
+ * again automatically. Both files are truncated once no entry is pending any more.
+ * <p>
+ * The journal is locked for as long as the outbox is open, so serve and the commands using the same directory cannot
+ * write to it at the same time.
+ */
+public class Outbox implements Closeable {
+    public static final String OUTBOX_DIR_PROPERTY = "outbox.dir";
+    private static final String DEFAULT_OUTBOX_DIR = "outbox";
+    private static final String JOURNAL_FILE = "outbox.journal";
+    private static final String INDEX_FILE = "outbox.index";
+    private static final int RECORD_MAGIC = 0x4F42584A;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int SLOT_SIZE = 16;
+    private static final int STATE_POSITION = 12;
+    private static final int SYNC_BATCH = 256;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final OpenOption[] OPEN_OPTIONS = {StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+
+    public enum State {
+        PENDING,
+        SENT,
+        REJECTED,
+        UNRESOLVED
+    }
+
+    private final Logger log = Logger.getLogger("Outbox");
+    private final File directory;
+    private final FileChannel journal;
+    private final FileChannel index;
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private int size;
+    private int pending;
+    private long journalEnd;
+    private int unsyncedUpdates;
+
+    public Outbox(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory()) {
+            try {
+                Files.createDirectories(directory.toPath(), ownerOnly("rwx------"));
+            } catch (IOException e) {
+                throw new IOException(String.format("Failed to create outbox directory [%s]", directory.getPath()), e);
+            }
+        }
+        journal = open(new File(directory, JOURNAL_FILE));
+        FileLock lock;
+        try {
+            lock = tryLock(journal);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        if (lock == null) {
+            journal.close();
+            throw new IOException(String.format("Outbox [%s] is already in use by another process, stop serve or the command using it and try again",
+                    directory.getPath()));
+        }
+        index = open(new File(directory, INDEX_FILE));
+        try {
+            load();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static File getDefaultDirectory() {
+        return new File(StringUtils.defaultIfBlank(System.getProperty(OUTBOX_DIR_PROPERTY), DEFAULT_OUTBOX_DIR));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int enqueue(OutboxEntry entry) throws IOException {
+        return enqueue(entry, State.PENDING);
+    }
+
+    public synchronized int enqueue(OutboxEntry entry, State state) throws IOException {
+        byte[] payload = encode(entry);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(RECORD_MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(journal, record, journalEnd);
+        journal.force(false);
+        int id = appendSlot(journalEnd, record.capacity(), state);
+        index.force(false);
+        journalEnd += record.capacity();
+        return id;
+    }
+
+    public OutboxEntry read(int id) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            offset = offsets[id];
+            length = lengths[id];
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(journal, record, offset);
+        byte[] payload = checkRecord(record);
+        if (payload == null) {
+            throw new IOException(String.format("Outbox entry [%d] is corrupted", id));
+        }
+        return decode(payload);
+    }
+
+    public synchronized void markState(int id, State state) throws IOException {
+        if (states[id] == state.ordinal()) {
+            return;
+        }
+        if (states[id] == State.PENDING.ordinal()) {
+            pending--;
+        } else if (state == State.PENDING) {
+            pending++;
+        }
+        states[id] = (byte) state.ordinal();
+        writeFully(index, ByteBuffer.wrap(new byte[]{states[id]}), (long) id * SLOT_SIZE + STATE_POSITION);
+        if (++unsyncedUpdates >= SYNC_BATCH) {
+            sync();
+        }
+    }
+
+    public synchronized void sync() throws IOException {
+        index.force(false);
+        unsyncedUpdates = 0;
+    }
+
+    public synchronized int[] getPendingIds() {
+        int[] ids = new int[pending];
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (states[id] == State.PENDING.ordinal()) {
+                ids[count++] = id;
+            }
+        }
+        return ids;
+    }
+
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // the journal is cut first, an index left pointing past its end is dropped on the next open
+    public synchronized boolean compact() throws IOException {
+        if (pending > 0 || size == 0) {
+            return false;
+        }
+        journal.truncate(0);
+        journal.force(false);
+        index.truncate(0);
+        index.force(false);
+        size = 0;
+        journalEnd = 0;
+        unsyncedUpdates = 0;
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (index.isOpen()) {
+                index.force(false);
+            }
+        } finally {
+            index.close();
+            // closing the journal also releases its lock
+            journal.close();
+        }
+    }
+
+    private void load() throws IOException {
+        long journalSize = journal.size();
+        long slots = index.size() / SLOT_SIZE;
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        for (long id = 0; id < slots; id++) {
+            slot.clear();
+            readFully(index, slot, id * SLOT_SIZE);
+            long offset = slot.getLong(0);
+            int length = slot.getInt(8);
+            byte state = slot.get(STATE_POSITION);
+            if (offset != journalEnd || length < RECORD_HEADER_SIZE || offset + length > journalSize || state < 0 || state >= State.values().length) {
+                log.warn(String.format("Outbox index [%s] is ahead of its journal, dropping [%d] entries", directory.getPath(), slots - id));
+                break;
+            }
+            addSlot(offset, length, state);
+            journalEnd = offset + length;
+        }
+        index.truncate((long) size * SLOT_SIZE);
+        // records appended to the journal whose index slot was never written
+        int recovered = 0;
+        while (journalEnd < journalSize) {
+            int length = readRecordLength(journalEnd, journalSize);
+            if (length < 0) {
+                log.warn(String.format("Cutting [%d] bytes of incomplete record off the outbox journal [%s]", journalSize - journalEnd, directory.getPath()));
+                journal.truncate(journalEnd);
+                break;
+            }
+            appendSlot(journalEnd, length, State.PENDING);
+            journalEnd += length;
+            recovered++;
+        }
+        if (recovered > 0) {
+            index.force(false);
+            log.info(String.format("Recovered [%d] outbox entries missing from the index", recovered));
+        }
+    }
+
+    private int readRecordLength(long offset, long journalSize) throws IOException {
+        if (journalSize - offset < RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(journal, header, offset);
+        int payloadLength = header.getInt(4);
+        if (header.getInt(0) != RECORD_MAGIC || payloadLength < 0 || payloadLength > journalSize - offset - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadLength);
+        readFully(journal, record, offset);
+        return checkRecord(record) == null ? -1 : record.capacity();
+    }
+
+    // payload of the record, null when the header or the checksum does not match
+    private byte[] checkRecord(ByteBuffer record) {
+        if (record.capacity() < RECORD_HEADER_SIZE || record.getInt(0) != RECORD_MAGIC
+                || record.getInt(4) != record.capacity() - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        byte[] payload = Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, record.capacity());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == record.getInt(8) ? payload : null;
+    }
+
+    private int appendSlot(long offset, int length, State state) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.putLong(offset).putInt(length).put((byte) state.ordinal()).rewind();
+        writeFully(index, slot, (long) size * SLOT_SIZE);
+        return addSlot(offset, length, (byte) state.ordinal());
+    }
+
+    private int addSlot(long offset, int length, byte state) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            states = Arrays.copyOf(states, size * 2);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        states[size] = state;
+        if (state == State.PENDING.ordinal()) {
+            pending++;
+        }
+        return size++;
+    }
+
+    private byte[] encode(OutboxEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.getSignedXml().length + 256);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(entry.getKind().ordinal());
+            output.writeLong(entry.getEnqueuedAt());
+            output.writeUTF(entry.getClientId());
+            output.writeInt(entry.getSignedXml().length);
+            output.write(entry.getSignedXml());
+        }
+        return bytes.toByteArray();
+    }
+
+    private OutboxEntry decode(byte[] payload) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            OutboxEntry.Kind kind = OutboxEntry.Kind.values()[input.readByte()];
+            long enqueuedAt = input.readLong();
+            String clientId = input.readUTF();
+            byte[] signedXml = new byte[input.readInt()];
+            input.readFully(signedXml);
+            return new OutboxEntry(kind, clientId, enqueuedAt, signedXml);
+        }
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), Set.of(OPEN_OPTIONS), ownerOnly("rw-------"));
+    }
+
+    // no attribute where the file system has no POSIX permissions
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+    }
+
+    // null when another process, or another outbox of this one, holds the lock
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package gov.jordan.istd.outbox;
+
+public class OutboxEntry {
+    public enum Kind {
+        CLEARANCE,
+        REPORT
+    }
+
+    private final Kind kind;
+    private final String clientId;
+    private final long enqueuedAt;
+    private final byte[] signedXml;
+
+    public OutboxEntry(Kind kind, String clientId, long enqueuedAt, byte[] signedXml) {
+        this.kind = kind;
+        this.clientId = clientId;
+        this.enqueuedAt = enqueuedAt;
+        this.signedXml = signedXml;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    public byte[] getSignedXml() {
+        return signedXml;
+    }
+}
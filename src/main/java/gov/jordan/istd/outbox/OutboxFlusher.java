@@ -0,0 +1,210 @@
+package gov.jordan.istd.outbox;
+
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.client.InvoiceRequestBody;
+import gov.jordan.istd.dto.OutboxFlushResult;
+import gov.jordan.istd.dto.SubmissionResult;
+import gov.jordan.istd.io.WriterHelper;
+import gov.jordan.istd.metrics.MetricsRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Replays the pending outbox entries through the asynchronous client calls, so the number of submissions in flight
+ * and their rate are bounded by the client's limiter exactly like for a live submission. Accepted invoices are marked
+ * sent; invoices Fotara refuses are marked rejected and copied, with the response, to the rejected directory of the
+ * outbox. Only submissions that provably never reached Fotara stay pending for the next flush, and a flush stops early
+ * once Fotara looks unreachable. A submission that may have been processed (a request timeout, a broken connection, a
+ * server error other than 503) is never sent again automatically since that could clear or report the invoice twice:
+ * it is marked unresolved and copied to the unresolved directory, to be checked against Fotara by hand.
+ * <p>
+ * The outbox only holds the client id of each entry, the secret keys come from the caller. Entries of a client whose
+ * secret key is unknown stay pending.
+ */
+public class OutboxFlusher {
+    private static final int MAX_CONSECUTIVE_FAILURES = 50;
+    private static final String REJECTED_DIRECTORY = "rejected";
+    private static final String UNRESOLVED_DIRECTORY = "unresolved";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final Logger log = Logger.getLogger("OutboxFlusher");
+    private final Outbox outbox;
+    private final FotaraClient client;
+    private final Function<String, String> secretKeys;
+    private final MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+
+    // secretKeys gives the secret key of a client id, null when it is not known
+    public OutboxFlusher(Outbox outbox, FotaraClient client, Function<String, String> secretKeys) {
+        this.outbox = outbox;
+        this.client = client;
+        this.secretKeys = secretKeys;
+    }
+
+    // never reached Fotara: the connection could not be opened, or it was throttled or unavailable, safe to send again
+    public static boolean isUndelivered(SubmissionResult result) {
+        int statusCode = result.getStatusCode();
+        return result.getFailure() == SubmissionResult.Failure.NOT_SENT || statusCode == TOO_MANY_REQUESTS || statusCode == SERVICE_UNAVAILABLE;
+    }
+
+    // may or may not have been processed by Fotara, sending it again could clear or report the invoice twice
+    public static boolean isOutcomeUnknown(SubmissionResult result) {
+        return result.getFailure() == SubmissionResult.Failure.OUTCOME_UNKNOWN
+                || (result.getStatusCode() / 100 == 5 && result.getStatusCode() != SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Keeps a submission that did not go through: pending when it can be sent again, unresolved and copied to the
+     * unresolved directory when its outcome is unknown.
+     */
+    public static int enqueue(Outbox outbox, OutboxEntry entry, SubmissionResult result) throws IOException {
+        if (!isOutcomeUnknown(result)) {
+            return outbox.enqueue(entry);
+        }
+        int id = outbox.enqueue(entry, Outbox.State.UNRESOLVED);
+        saveEntry(outbox, UNRESOLVED_DIRECTORY, id, entry, result);
+        return id;
+    }
+
+    /**
+     * Keeps the signed invoice of a submit command that did not go through in the default outbox, for flush-outbox
+     * instead of failing: it is already signed and must reach Fotara eventually. When Fotara may have processed it
+     * already it is kept as unresolved instead, to be checked by hand rather than sent twice.
+     */
+    public static boolean enqueue(OutboxEntry.Kind kind, String clientId, String xmlPath, SubmissionResult result) {
+        File outboxDirectory = Outbox.getDefaultDirectory();
+        try (Outbox outbox = new Outbox(outboxDirectory)) {
+            int id = enqueue(outbox, new OutboxEntry(kind, clientId, System.currentTimeMillis(), Files.readAllBytes(Paths.get(xmlPath))), result);
+            String error = StringUtils.defaultIfBlank(result.getError(), String.valueOf(result.getStatusCode()));
+            if (isOutcomeUnknown(result)) {
+                log.warn(String.format("Outcome of the submission is unknown [%s], kept as unresolved [%d] in outbox [%s], check it against Fotara before sending it again",
+                        error, id, outboxDirectory.getPath()));
+            } else {
+                log.warn(String.format("Invoice not delivered to Fotara [%s], queued as [%d] in outbox [%s]", error, id, outboxDirectory.getPath()));
+            }
+        } catch (IOException e) {
+            log.error(String.format("Failed to queue invoice in outbox [%s]", outboxDirectory.getPath()), e);
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized OutboxFlushResult flush() {
+        long start = System.currentTimeMillis();
+        int[] ids = outbox.getPendingIds();
+        CountDownLatch done = new CountDownLatch(ids.length);
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger unresolved = new AtomicInteger();
+        AtomicInteger consecutiveFailures = new AtomicInteger();
+        int attempted = 0;
+        int withoutSecretKey = 0;
+        int next = 0;
+        for (; next < ids.length; next++) {
+            int id = ids[next];
+            if (consecutiveFailures.get() >= MAX_CONSECUTIVE_FAILURES) {
+                log.warn(String.format("Fotara is not accepting submissions, leaving [%d] entries for the next flush", ids.length - next));
+                break;
+            }
+            OutboxEntry entry;
+            try {
+                entry = outbox.read(id);
+            } catch (IOException e) {
+                attempted++;
+                // a corrupted entry would otherwise be retried on every flush
+                log.error(String.format("Failed to read outbox entry [%d]", id), e);
+                markState(id, Outbox.State.REJECTED);
+                rejected.incrementAndGet();
+                done.countDown();
+                continue;
+            }
+            String secretKey = secretKeys.apply(entry.getClientId());
+            if (StringUtils.isBlank(secretKey)) {
+                withoutSecretKey++;
+                done.countDown();
+                continue;
+            }
+            attempted++;
+            HttpRequest.BodyPublisher requestBody = InvoiceRequestBody.ofBytes(entry.getSignedXml());
+            CompletableFuture<SubmissionResult> submission = entry.getKind() == OutboxEntry.Kind.REPORT
+                    ? client.reportInvoiceAsync(requestBody, entry.getClientId(), secretKey)
+                    : client.submitInvoiceAsync(requestBody, entry.getClientId(), secretKey);
+            submission.thenAccept(result -> {
+                if (isUndelivered(result)) {
+                    consecutiveFailures.incrementAndGet();
+                    return;
+                }
+                if (isOutcomeUnknown(result)) {
+                    consecutiveFailures.incrementAndGet();
+                    log.warn(String.format("Outcome of outbox entry [%d] is unknown [%s], it must be checked against Fotara by hand", id,
+                            StringUtils.defaultIfBlank(result.getError(), String.valueOf(result.getStatusCode()))));
+                    saveEntry(outbox, UNRESOLVED_DIRECTORY, id, entry, result);
+                    markState(id, Outbox.State.UNRESOLVED);
+                    unresolved.incrementAndGet();
+                    return;
+                }
+                consecutiveFailures.set(0);
+                if (result.isSuccessful()) {
+                    markState(id, Outbox.State.SENT);
+                    sent.incrementAndGet();
+                } else {
+                    log.warn(String.format("Fotara rejected outbox entry [%d] with status [%d]", id, result.getStatusCode()));
+                    saveEntry(outbox, REJECTED_DIRECTORY, id, entry, result);
+                    markState(id, Outbox.State.REJECTED);
+                    rejected.incrementAndGet();
+                }
+            }).whenComplete((ignored, error) -> done.countDown());
+        }
+        // entries never attempted still hold their count
+        for (; next < ids.length; next++) {
+            done.countDown();
+        }
+        if (withoutSecretKey > 0) {
+            log.warn(String.format("[%d] outbox entries stay pending, the secret key of their client is not known", withoutSecretKey));
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            outbox.sync();
+            if (outbox.compact()) {
+                log.info(String.format("Outbox [%s] is empty, journal truncated", outbox.getDirectory().getPath()));
+            }
+        } catch (IOException e) {
+            log.error(String.format("Failed to sync outbox [%s]", outbox.getDirectory().getPath()), e);
+        }
+        metricsRegistry.counter("outbox.sent").add(sent.get());
+        metricsRegistry.counter("outbox.rejected").add(rejected.get());
+        metricsRegistry.counter("outbox.unresolved").add(unresolved.get());
+        return new OutboxFlushResult(attempted, sent.get(), rejected.get(), unresolved.get(), outbox.getPendingCount(),
+                withoutSecretKey, System.currentTimeMillis() - start);
+    }
+
+    private void markState(int id, Outbox.State state) {
+        try {
+            outbox.markState(id, state);
+        } catch (IOException e) {
+            log.error(String.format("Failed to mark outbox entry [%d] as [%s]", id, state), e);
+        }
+    }
+
+    // the signed XML and the response or error side by side, named after the enqueue time and the outbox id
+    private static void saveEntry(Outbox outbox, String directory, int id, OutboxEntry entry, SubmissionResult result) {
+        String path = new File(new File(outbox.getDirectory(), directory), entry.getEnqueuedAt() + "-" + id).getPath();
+        log.info(String.format("Outbox entry [%d] saved to [%s.xml]", id, path));
+        WriterHelper.writeFile(path + ".xml", new String(entry.getSignedXml(), StandardCharsets.UTF_8));
+        WriterHelper.writeFile(path + ".json", StringUtils.defaultString(result.getResponseBody(), result.getError()));
+    }
+}
@@ -4,6 +4,7 @@ import gov.jordan.istd.client.FotaraClient;
 import gov.jordan.istd.dto.CertificateResponse;
 import gov.jordan.istd.dto.ComplianceInvoiceResponse;
 import gov.jordan.istd.dto.EInvoiceResponse;
+import gov.jordan.istd.dto.EInvoiceSigningResults;
 import gov.jordan.istd.helper.RequesterGeneratorHelper;
 import gov.jordan.istd.helper.SigningHelper;
 import gov.jordan.istd.io.ReaderHelper;
@@ -11,9 +12,11 @@ import gov.jordan.istd.io.WriterHelper;
 import gov.jordan.istd.processor.ActionProcessor;
 import gov.jordan.istd.security.SecurityUtils;
 import gov.jordan.istd.utils.JsonUtils;
+import gov.jordan.istd.utils.PrivateKeyUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
 import java.util.Base64;
 import java.util.Objects;
 
@@ -26,16 +29,20 @@ public class ComplianceSubmitProcessor extends ActionProcessor {
     private FotaraClient client;
     private ComplianceInvoiceResponse eInvoiceResponse;
     private String outputPath;
+    private String privateKeyPath;
+    private PrivateKey privateKey;
 
     @Override
     protected boolean loadArgs(String[] args) {
-        if (args.length != 3) {
+        if (args.length != 3 && args.length != 4) {
             log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar compliance-invoice <signed-xml-path> <compliance-certificate-path> <output-path>");
+            log.info("   or: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar compliance-invoice <xml-path> <compliance-certificate-path> <output-path> <private-key-path>");
             return false;
         }
         xmlPath = args[0];
         complianceCertificatePath = args[1];
         outputPath = args[2];
+        privateKeyPath = args.length == 4 ? args[3] : null;
         client = new FotaraClient(propertiesManager);
         return true;
     }
@@ -58,16 +65,51 @@ public class ComplianceSubmitProcessor extends ActionProcessor {
         productionCertificateResponse=new CertificateResponse();
         productionCertificateResponse.setBinarySecurityToken(productionCertificateResponseStr);
         productionCertificateResponse.setSecret(Base64.getEncoder().encodeToString(productionCertificateResponseStr.getBytes(StandardCharsets.UTF_8)));
+        if (Objects.nonNull(privateKeyPath) && !readPrivateKey()) {
+            return false;
+        }
        return StringUtils.isNotBlank(productionCertificateResponseStr);
     }
 
     @Override
     protected boolean process() {
-        String jsonBody = requesterGeneratorHelper.generateEInvoiceRequest(signedXml);
+        String jsonBody;
+        if (Objects.nonNull(privateKey)) {
+            // sign and submit, the request is built from the signing results instead of the signed XML being parsed again
+            EInvoiceSigningResults signingResults = new SigningHelper().signEInvoice(signedXml, privateKey,
+                    productionCertificateResponse.getBinarySecurityToken());
+            if (Objects.isNull(signingResults)) {
+                log.info(String.format("Failed to sign invoice [%s]", xmlPath));
+                return false;
+            }
+            log.info(String.format("Signed invoice UUID [%s] hash [%s]", signingResults.getInvoiceUUID(), signingResults.getInvoiceHash()));
+            jsonBody = requesterGeneratorHelper.generateEInvoiceRequest(signingResults);
+        } else {
+            jsonBody = requesterGeneratorHelper.generateEInvoiceRequest(signedXml);
+        }
+        if (Objects.isNull(jsonBody)) {
+            return false;
+        }
         eInvoiceResponse = client.complianceInvoice(productionCertificateResponse, jsonBody);
         return Objects.nonNull(eInvoiceResponse);
     }
 
+    private boolean readPrivateKey() {
+        String privateKeyFile = ReaderHelper.readFileAsString(privateKeyPath);
+        if (StringUtils.isBlank(privateKeyFile)) {
+            log.info(String.format("Private key file [%s] is empty", privateKeyPath));
+            return false;
+        }
+        try {
+            privateKeyFile = SecurityUtils.decrypt(privateKeyFile);
+            privateKey = PrivateKeyUtil.loadPrivateKey(privateKeyFile, null);
+        } catch (Exception e) {
+            log.error(String.format("Failed to read private key [%s]", privateKeyPath), e);
+            return false;
+        }
+        return true;
+    }
+
     @Override
     protected boolean output() {
         log.info(String.format("Response [%s]",JsonUtils.toJson(eInvoiceResponse)));
@@ -0,0 +1,185 @@
+package gov.jordan.istd.processor.impl;
+
+import gov.jordan.istd.dto.BatchCsrResult;
+import gov.jordan.istd.dto.CsrConfigDto;
+import gov.jordan.istd.dto.CsrResponseDto;
+import gov.jordan.istd.helper.CmsRequestHelper;
+import gov.jordan.istd.helper.KeyPairPool;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.io.WriterHelper;
+import gov.jordan.istd.processor.ActionProcessor;
+import gov.jordan.istd.utils.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CsrKeysBatchProcessor extends ActionProcessor {
+    private static final String SUMMARY_FILE = "csr_summary.json";
+    private static final String STATUS_GENERATED = "GENERATED";
+    private static final String STATUS_FAILED = "FAILED";
+    // key pairs the pool holds ahead of the CSR threads, per CSR thread
+    private static final int POOLED_KEY_PAIRS_PER_THREAD = 4;
+
+    private String outputDirectory = "";
+    private String configFilePath = "";
+    private String devicesFilePath = "";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final int generatorThreads = Runtime.getRuntime().availableProcessors();
+    private CsrConfigDto csrConfigDto;
+    private final List<CsrConfigDto> devices = new ArrayList<>();
+    private final List<BatchCsrResult> results = new ArrayList<>();
+    private long elapsedMillis;
+
+    @Override
+    protected boolean loadArgs(String[] args) {
+        if (args.length != 3 && args.length != 4) {
+            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar generate-csr-keys-batch <directory> <config-file> <devices-file> [threads]");
+            return false;
+        }
+        outputDirectory = args[0];
+        configFilePath = args[1];
+        devicesFilePath = args[2];
+        if (args.length == 4) {
+            if (!args[3].matches("\\d+") || Integer.parseInt(args[3]) < 1) {
+                log.info("Invalid threads count - must be a positive number");
+                return false;
+            }
+            threads = Integer.parseInt(args[3]);
+        }
+        csrConfigDto = new CsrConfigDto();
+        return true;
+    }
+
+    @Override
+    protected boolean validateArgs() {
+        if (!ReaderHelper.isDirectoryExists(outputDirectory)) {
+            log.info(String.format("Output directory [%s] does not exist", outputDirectory));
+            return false;
+        }
+        return readConfig() && readDevices();
+    }
+
+    @Override
+    protected boolean process() {
+        log.info(String.format("Generating [%d] CSRs, key pairs on [%d] generator threads and CSRs on [%d] threads",
+                devices.size(), generatorThreads, threads));
+        long start = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        // the generators start filling the pool right away, the CSR threads take the key pairs as they come
+        try (KeyPairPool keyPairPool = new KeyPairPool(csrConfigDto, devices.size(), generatorThreads, threads * POOLED_KEY_PAIRS_PER_THREAD)) {
+            List<Future<BatchCsrResult>> futures = new ArrayList<>(devices.size());
+            for (CsrConfigDto device : devices) {
+                futures.add(executorService.submit(() -> generateCsr(device, keyPairPool)));
+            }
+            for (Future<BatchCsrResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (Exception e) {
+            log.error("Failed to generate CSRs batch", e);
+            return false;
+        } finally {
+            executorService.shutdownNow();
+        }
+        elapsedMillis = System.currentTimeMillis() - start;
+        return true;
+    }
+
+    @Override
+    protected boolean output() {
+        long generated = results.stream().filter(result -> STATUS_GENERATED.equals(result.getStatus())).count();
+        double rate = elapsedMillis == 0 ? generated : generated * 1000.0 / elapsedMillis;
+        log.info(String.format("Generated [%d] of [%d] CSRs in [%d] ms (%.1f CSRs/s)", generated, results.size(), elapsedMillis, rate));
+        String summaryFile = new File(outputDirectory, SUMMARY_FILE).getPath();
+        log.info(String.format("CSR summary [%s]", summaryFile));
+        return WriterHelper.writeFile(summaryFile, JsonUtils.toJson(results));
+    }
+
+    private BatchCsrResult generateCsr(CsrConfigDto device, KeyPairPool keyPairPool) {
+        BatchCsrResult result = new BatchCsrResult(device.getEnName(), device.getSerialNumber());
+        try {
+            CsrResponseDto csrResponse = CmsRequestHelper.createCsr(device, keyPairPool.take());
+            String baseFileName = baseFileName(device);
+            if (!CsrKeysProcessor.writeCsrFiles(outputDirectory, baseFileName, csrResponse)) {
+                return failed(result, "Failed to write CSR files");
+            }
+            result.setFile(baseFileName);
+            result.setStatus(STATUS_GENERATED);
+        } catch (Exception e) {
+            log.error(String.format("Failed to generate CSR of [%s] [%s]", device.getEnName(), device.getSerialNumber()), e);
+            return failed(result, e.getMessage());
+        }
+        return result;
+    }
+
+    private BatchCsrResult failed(BatchCsrResult result, String error) {
+        log.info(String.format("CSR of [%s] [%s] %s", result.getCommonName(), result.getSerialNumber(), error));
+        result.setStatus(STATUS_FAILED);
+        result.setError(error);
+        return result;
+    }
+
+    // devices of a batch are generated within the same second, the serial number tells their files apart instead of the time
+    private String baseFileName(CsrConfigDto device) {
+        return String.format("%s_%s", CsrKeysProcessor.extractCommonNameFromDN(device.getSubjectDn()),
+                device.getSerialNumber().trim().replaceAll("[^a-zA-Z0-9_-]", "_"));
+    }
+
+    // the shared fields (organization, unit, country, key algorithm) of every device, same file as generate-csr-keys
+    private boolean readConfig() {
+        if (StringUtils.isBlank(configFilePath)) {
+            log.info("Config file path is required");
+            return false;
+        }
+        csrConfigDto.loadStandardConfigFromResources();
+        String configFile = ReaderHelper.readFileAsString(configFilePath);
+        if (StringUtils.isBlank(configFile)) {
+            log.info(String.format("Config file [%s] is empty", configFilePath));
+            return false;
+        }
+        CsrKeysProcessor.UserConfigDto userConfig = JsonUtils.readJson(configFile, CsrKeysProcessor.UserConfigDto.class);
+        if (Objects.isNull(userConfig)) {
+            log.info(String.format("Config file [%s] is invalid", configFilePath));
+            return false;
+        }
+        CsrKeysProcessor.applyUserConfig(userConfig, csrConfigDto);
+        return true;
+    }
+
+    // a JSON array of {"CommonName": ..., "SerialNumber": ...}, one per device
+    private boolean readDevices() {
+        String devicesFile = ReaderHelper.readFileAsString(devicesFilePath);
+        if (StringUtils.isBlank(devicesFile)) {
+            log.info(String.format("Devices file [%s] is empty", devicesFilePath));
+            return false;
+        }
+        CsrConfigDto[] deviceEntries = JsonUtils.readJson(devicesFile, CsrConfigDto[].class);
+        if (Objects.isNull(deviceEntries) || deviceEntries.length == 0) {
+            log.info(String.format("Devices file [%s] is invalid or has no devices", devicesFilePath));
+            return false;
+        }
+        Set<String> baseFileNames = new HashSet<>();
+        for (int index = 0; index < deviceEntries.length; index++) {
+            CsrConfigDto device = csrConfigDto.forDevice(deviceEntries[index].getEnName(), deviceEntries[index].getSerialNumber());
+            String error = CsrKeysProcessor.csrConfigError(device);
+            if (error != null) {
+                log.info(String.format("Device [%d] of [%s]: %s", index + 1, devicesFilePath, error));
+                return false;
+            }
+            if (!baseFileNames.add(baseFileName(device))) {
+                log.info(String.format("Device [%d] of [%s]: [%s] [%s] is listed more than once", index + 1, devicesFilePath,
+                        device.getEnName(), device.getSerialNumber()));
+                return false;
+            }
+            devices.add(device);
+        }
+        return true;
+    }
+}
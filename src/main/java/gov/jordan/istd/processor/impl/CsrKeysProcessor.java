@@ -10,6 +10,7 @@ import gov.jordan.istd.security.SecurityUtils;
 import gov.jordan.istd.helper.CmsRequestHelper;
 import gov.jordan.istd.utils.JsonUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.openssl.PEMWriter;
 import org.bouncycastle.util.io.pem.PemObject;
 
@@ -23,20 +24,26 @@ public class CsrKeysProcessor extends ActionProcessor {
 
     private String outputDirectory = "";
     private String configFilePath = "";
+    private String enName;
+    private String serialNumber;
     private CsrConfigDto csrConfigDto;
     private CsrResponseDto csrResponse;
     private String csrPem;
-    private String csrDerBase64;
-    private String privateKeyBase64;
+    private String baseFileName;
 
     @Override
     protected boolean loadArgs(String[] args) {
-        if (args.length != 2) {
+        if (args.length != 2 && args.length != 4) {
             log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar generate-csr-keys <directory> <config-file>");
             return false;
         }
         outputDirectory = args[0];
-        configFilePath = args[1];
+        configFilePath = args[args.length - 1];
+        // onboard passes the name and serial number it was given ahead of the config file
+        if (args.length == 4) {
+            enName = args[1];
+            serialNumber = args[2];
+        }
 
         csrConfigDto = new CsrConfigDto();
 
@@ -72,7 +79,19 @@ public class CsrKeysProcessor extends ActionProcessor {
             return false;
         }
 
-        // Apply user config to csrConfigDto
+        applyUserConfig(userConfig, csrConfigDto);
+        if (StringUtils.isNotBlank(enName)) {
+            csrConfigDto.setEnName(enName);
+        }
+        if (StringUtils.isNotBlank(serialNumber)) {
+            csrConfigDto.setSerialNumber(serialNumber);
+        }
+
+        return validateCsrConfig();
+    }
+
+    // Apply user config to csrConfigDto, shared with generate-csr-keys-batch
+    static void applyUserConfig(UserConfigDto userConfig, CsrConfigDto csrConfigDto) {
         if (StringUtils.isNotBlank(userConfig.getCorporateName())) {
             csrConfigDto.setEnName(userConfig.getCorporateName());
         }
@@ -88,49 +107,62 @@ public class CsrKeysProcessor extends ActionProcessor {
         if (StringUtils.isNotBlank(userConfig.getCountry())) {
             csrConfigDto.setCountry(userConfig.getCountry());
         }
-
-        return validateCsrConfig();
+        if (StringUtils.isNotBlank(userConfig.getKeyAlgorithm())) {
+            csrConfigDto.setKeyAlgorithm(userConfig.getKeyAlgorithm());
+        }
+        if (StringUtils.isNotBlank(userConfig.getCurve())) {
+            csrConfigDto.setCurve(userConfig.getCurve());
+        }
     }
 
     private boolean validateCsrConfig() {
-        if (StringUtils.isBlank(csrConfigDto.getEnName())) {
-            log.info("Please enter a valid Name.");
+        String error = csrConfigError(csrConfigDto);
+        if (error != null) {
+            log.info(error);
             return false;
         }
+        return true;
+    }
+
+    // null when the config can produce a CSR, otherwise what is wrong with it
+    static String csrConfigError(CsrConfigDto csrConfigDto) {
+        if (StringUtils.isBlank(csrConfigDto.getEnName())) {
+            return "Please enter a valid Name.";
+        }
 
         if (StringUtils.isBlank(csrConfigDto.getSerialNumber())) {
-            log.info("Please enter a valid Serial Number.");
-            return false;
+            return "Please enter a valid Serial Number.";
         }
 
         if (StringUtils.isBlank(csrConfigDto.getOrganizationIdentifier())) {
-            log.info("Organization identifier is required from config file.");
-            return false;
+            return "Organization identifier is required from config file.";
         }
 
         if (StringUtils.isBlank(csrConfigDto.getOrganizationUnitName())) {
-            log.info("Organization unit name is required from config file.");
-            return false;
+            return "Organization unit name is required from config file.";
         }
 
         if (StringUtils.isBlank(csrConfigDto.getCountry())) {
-            log.info("Country is required from config file.");
-            return false;
+            return "Country is required from config file.";
         }
 
-        if (csrConfigDto.getKeySize() < 1024) {
-            log.info("Key size must be at least 1024 bits");
-            return false;
+        if (CsrConfigDto.EC.equals(csrConfigDto.getKeyAlgorithm())) {
+            if (ECNamedCurveTable.getParameterSpec(csrConfigDto.getCurve()) == null) {
+                return String.format("Unknown EC curve [%s], use secp256k1 or secp256r1", csrConfigDto.getCurve());
+            }
+        } else if (!CsrConfigDto.RSA.equals(csrConfigDto.getKeyAlgorithm())) {
+            return String.format("Key algorithm [%s] must be RSA or EC", csrConfigDto.getKeyAlgorithm());
+        } else if (csrConfigDto.getKeySize() < 1024) {
+            return "Key size must be at least 1024 bits";
         }
 
         // Validate that DN can be generated
         String dn = csrConfigDto.getSubjectDn();
         if (StringUtils.isBlank(dn)) {
-            log.info("Unable to generate DN - missing required fields");
-            return false;
+            return "Unable to generate DN - missing required fields";
         }
 
-        return true;
+        return null;
     }
 
     @Override
@@ -138,7 +170,11 @@ public class CsrKeysProcessor extends ActionProcessor {
         try {
             String subjectDn = csrConfigDto.getSubjectDn();
             log.info(String.format("Generated DN: %s", subjectDn));
-            log.info(String.format("RSA key size: %d", csrConfigDto.getKeySize()));
+            if (CsrConfigDto.EC.equals(csrConfigDto.getKeyAlgorithm())) {
+                log.info(String.format("EC curve: %s", csrConfigDto.getCurve()));
+            } else {
+                log.info(String.format("RSA key size: %d", csrConfigDto.getKeySize()));
+            }
 
             if (StringUtils.isNotBlank(csrConfigDto.getTemplateOid())) {
                 log.info(String.format("Certificate template OID: %s (v%d.%d)",
@@ -149,13 +185,7 @@ public class CsrKeysProcessor extends ActionProcessor {
 
             csrResponse = CmsRequestHelper.createCsr(csrConfigDto);
 
-            String csrBase64 = Base64.getEncoder().encodeToString(csrResponse.getCsrDer());
-
-            String cleanedCsr = cleanCsrString(csrBase64);
-
             csrPem = convertToPem("CERTIFICATE REQUEST", csrResponse.getCsrDer());
-            csrDerBase64 = cleanedCsr;
-            privateKeyBase64 = Base64.getEncoder().encodeToString(csrResponse.getPrivateKeyBytes());
 
             log.info("Successfully generated CSR and unencrypted private key");
             return true;
@@ -172,12 +202,24 @@ public class CsrKeysProcessor extends ActionProcessor {
             java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
 
         String commonName = extractCommonNameFromDN(csrConfigDto.getSubjectDn());
-        String baseFileName = String.format("%s_%s", commonName, timestamp);
+        baseFileName = String.format("%s_%s", commonName, timestamp);
+
+        return writeCsrFiles(outputDirectory, baseFileName, csrResponse);
+    }
 
+    // name of the written files without the extension, set once output ran
+    public String getBaseFileName() {
+        return baseFileName;
+    }
+
+    // the encrypted .csr, .key and .pub files of one CSR
+    static boolean writeCsrFiles(String outputDirectory, String baseFileName, CsrResponseDto csrResponse) {
         String csrFile = outputDirectory + "/" + baseFileName + ".csr";
         String keyFile = outputDirectory + "/" + baseFileName + ".key";
         String pubKeyFile = outputDirectory + "/" + baseFileName + ".pub";
 
+        String csrDerBase64 = cleanCsrString(Base64.getEncoder().encodeToString(csrResponse.getCsrDer()));
+        String privateKeyBase64 = Base64.getEncoder().encodeToString(csrResponse.getPrivateKeyBytes());
         String publicKeyBase64 = Base64.getEncoder().encodeToString(csrResponse.getPublicKeyBytes());
 
         boolean valid = WriterHelper.writeFile(csrFile, SecurityUtils.encrypt(csrDerBase64));
@@ -187,7 +229,7 @@ public class CsrKeysProcessor extends ActionProcessor {
         return valid;
     }
 
-    private String extractCommonNameFromDN(String subjectDn) {
+    static String extractCommonNameFromDN(String subjectDn) {
         try {
             String[] parts = subjectDn.split(",");
             for (String part : parts) {
@@ -212,7 +254,7 @@ public class CsrKeysProcessor extends ActionProcessor {
     }
 
     // Helper DTO class for parsing user config JSON
-    private static class UserConfigDto {
+    static class UserConfigDto {
         @JsonProperty("CommonName")
         private String corporateName;
 
@@ -228,10 +270,18 @@ public class CsrKeysProcessor extends ActionProcessor {
         @JsonProperty("Country(ISO2)")
         private String country;
 
+        @JsonProperty("keyAlgorithm")
+        private String keyAlgorithm;
+
+        @JsonProperty("curve")
+        private String curve;
+
         public String getCorporateName() { return corporateName; }
         public String getOrganizationIdentifier() { return organizationIdentifier; }
         public String getOrganizationUnitName() { return organizationUnitName; }
         public String getSerialNumber() { return serialNumber; }
         public String getCountry() { return country; }
+        public String getKeyAlgorithm() { return keyAlgorithm; }
+        public String getCurve() { return curve; }
     }
 }
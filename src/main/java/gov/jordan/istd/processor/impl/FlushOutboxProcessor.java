@@ -0,0 +1,68 @@
+package gov.jordan.istd.processor.impl;
+
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.dto.OutboxFlushResult;
+import gov.jordan.istd.outbox.Outbox;
+import gov.jordan.istd.outbox.OutboxFlusher;
+import gov.jordan.istd.processor.ActionProcessor;
+import gov.jordan.istd.utils.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+public class FlushOutboxProcessor extends ActionProcessor {
+    private String clientId;
+    private String secretKey;
+    private File outboxDirectory;
+    private OutboxFlushResult flushResult;
+
+    @Override
+    protected boolean loadArgs(String[] args) {
+        if (args.length != 2 && args.length != 3) {
+            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar flush-outbox <client-id> <secret-key> [outbox-directory]");
+            return false;
+        }
+        clientId = args[0];
+        secretKey = args[1];
+        outboxDirectory = args.length == 3 ? new File(args[2]) : Outbox.getDefaultDirectory();
+        return true;
+    }
+
+    @Override
+    protected boolean validateArgs() {
+        if (StringUtils.isBlank(clientId) || StringUtils.isBlank(secretKey)) {
+            log.info("Client id and secret key are required");
+            return false;
+        }
+        if (!outboxDirectory.isDirectory()) {
+            log.info(String.format("Outbox directory [%s] does not exist", outboxDirectory.getPath()));
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean process() {
+        try (Outbox outbox = new Outbox(outboxDirectory)) {
+            log.info(String.format("Flushing [%d] pending invoices from [%s]", outbox.getPendingCount(), outboxDirectory.getPath()));
+            // only the invoices of this client are sent, the others stay pending
+            flushResult = new OutboxFlusher(outbox, new FotaraClient(propertiesManager), id -> clientId.equals(id) ? secretKey : null).flush();
+        } catch (IOException e) {
+            log.error(String.format("Failed to open outbox [%s]", outboxDirectory.getPath()), e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean output() {
+        log.info(String.format("Outbox flushed [%s]", JsonUtils.toJson(flushResult)));
+        if (flushResult.getUnresolved() > 0) {
+            log.warn(String.format("[%d] invoices may or may not have been processed by Fotara, check those in [%s] by hand",
+                    flushResult.getUnresolved(), new File(outboxDirectory, "unresolved").getPath()));
+        }
+        // the invoices of other clients are left for them
+        return flushResult.getPending() == flushResult.getWithoutSecretKey();
+    }
+}
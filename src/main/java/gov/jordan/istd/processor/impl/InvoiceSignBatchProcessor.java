@@ -0,0 +1,172 @@
+package gov.jordan.istd.processor.impl;
+
+import gov.jordan.istd.dto.BatchSigningResult;
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.helper.SignerSession;
+import gov.jordan.istd.helper.SigningHelper;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.io.WriterHelper;
+import gov.jordan.istd.processor.ActionProcessor;
+import gov.jordan.istd.security.SecurityUtils;
+import gov.jordan.istd.utils.JsonUtils;
+import gov.jordan.istd.utils.PrivateKeyUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class InvoiceSignBatchProcessor extends ActionProcessor {
+    private static final String SUMMARY_FILE = "signing_summary.json";
+    private static final String STATUS_SIGNED = "SIGNED";
+    private static final String STATUS_FAILED = "FAILED";
+
+    private final SigningHelper signingHelper = new SigningHelper();
+    private String inputPath = "";
+    private String privateKeyPath = "";
+    private String certificatePath = "";
+    private String outputDirectory = "";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private PrivateKey privateKey;
+    private String certificateStr;
+    private SignerSession signerSession;
+    private List<File> xmlFiles;
+    private final List<BatchSigningResult> results = new ArrayList<>();
+    private long elapsedMillis;
+
+    @Override
+    protected boolean loadArgs(String[] args) {
+        if (args.length != 4 && args.length != 5) {
+            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar invoice-sign-batch <input-directory-or-glob> <private-key-path> <certificate-path> <output-directory> [threads]");
+            return false;
+        }
+        inputPath = args[0];
+        privateKeyPath = args[1];
+        certificatePath = args[2];
+        outputDirectory = args[3];
+        if (args.length == 5) {
+            if (!args[4].matches("\\d+") || Integer.parseInt(args[4]) < 1) {
+                log.info("Invalid threads count - must be a positive number");
+                return false;
+            }
+            threads = Integer.parseInt(args[4]);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean validateArgs() {
+        if (!ReaderHelper.isDirectoryExists(outputDirectory)) {
+            log.info(String.format("Output directory [%s] does not exist", outputDirectory));
+            return false;
+        }
+        xmlFiles = ReaderHelper.listFiles(inputPath);
+        if (xmlFiles.isEmpty()) {
+            log.info(String.format("No XML files found in [%s]", inputPath));
+            return false;
+        }
+        if (!readPrivateKey()) return false;
+        if (!readCertificate()) return false;
+        return createSignerSession();
+    }
+
+    @Override
+    protected boolean process() {
+        log.info(String.format("Signing [%d] invoices on [%d] threads", xmlFiles.size(), threads));
+        long start = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BatchSigningResult>> futures = new ArrayList<>(xmlFiles.size());
+            for (File xmlFile : xmlFiles) {
+                futures.add(executorService.submit(() -> signFile(xmlFile)));
+            }
+            for (Future<BatchSigningResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (Exception e) {
+            log.error("Failed to sign invoices batch", e);
+            return false;
+        } finally {
+            executorService.shutdownNow();
+        }
+        elapsedMillis = System.currentTimeMillis() - start;
+        return true;
+    }
+
+    @Override
+    protected boolean output() {
+        long signed = results.stream().filter(result -> STATUS_SIGNED.equals(result.getStatus())).count();
+        double rate = elapsedMillis == 0 ? signed : signed * 1000.0 / elapsedMillis;
+        log.info(String.format("Signed [%d] of [%d] invoices in [%d] ms (%.1f invoices/s)", signed, results.size(), elapsedMillis, rate));
+        String summaryFile = new File(outputDirectory, SUMMARY_FILE).getPath();
+        log.info(String.format("Signing summary [%s]", summaryFile));
+        return WriterHelper.writeFile(summaryFile, JsonUtils.toJson(results));
+    }
+
+    private BatchSigningResult signFile(File xmlFile) {
+        BatchSigningResult result = new BatchSigningResult(xmlFile.getName());
+        try {
+            EInvoiceSigningResults signingResults = signingHelper.signEInvoice(xmlFile, new File(outputDirectory, xmlFile.getName()), signerSession);
+            if (Objects.isNull(signingResults)) {
+                return failed(result, "Failed to sign invoice");
+            }
+            result.setInvoiceUUID(signingResults.getInvoiceUUID());
+            result.setInvoiceHash(signingResults.getInvoiceHash());
+            result.setQrCode(signingResults.getQrCode());
+            result.setStatus(STATUS_SIGNED);
+        } catch (Exception e) {
+            log.error(String.format("Failed to sign invoice [%s]", xmlFile.getPath()), e);
+            return failed(result, e.getMessage());
+        }
+        return result;
+    }
+
+    private BatchSigningResult failed(BatchSigningResult result, String error) {
+        log.info(String.format("Invoice [%s] %s", result.getFile(), error));
+        result.setStatus(STATUS_FAILED);
+        result.setError(error);
+        return result;
+    }
+
+    // parses the certificate once, every invoice then reuses it
+    private boolean createSignerSession() {
+        try {
+            signerSession = new SignerSession(privateKey, certificateStr);
+        } catch (Exception e) {
+            log.error(String.format("Failed to read certificate [%s]", certificatePath), e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean readCertificate() {
+        certificateStr = ReaderHelper.readFileAsString(certificatePath);
+        if (StringUtils.isBlank(certificateStr)) {
+            log.info(String.format("Certificate file [%s] is empty", certificatePath));
+            return false;
+        }
+        certificateStr = SecurityUtils.decrypt(certificateStr);
+        return true;
+    }
+
+    private boolean readPrivateKey() {
+        String privateKeyFile = ReaderHelper.readFileAsString(privateKeyPath);
+        if (StringUtils.isBlank(privateKeyFile)) {
+            log.info(String.format("Private key file [%s] is empty", privateKeyPath));
+            return false;
+        }
+        try {
+            privateKeyFile = SecurityUtils.decrypt(privateKeyFile);
+            privateKey = PrivateKeyUtil.loadPrivateKey(privateKeyFile, null);
+        } catch (Exception e) {
+            log.error(String.format("Failed to read private key [%s]", privateKeyPath), e);
+            return false;
+        }
+        return true;
+    }
+}
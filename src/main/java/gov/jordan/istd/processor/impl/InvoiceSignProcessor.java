@@ -3,12 +3,12 @@ package gov.jordan.istd.processor.impl;
 import gov.jordan.istd.dto.EInvoiceSigningResults;
 import gov.jordan.istd.helper.SigningHelper;
 import gov.jordan.istd.io.ReaderHelper;
-import gov.jordan.istd.io.WriterHelper;
 import gov.jordan.istd.processor.ActionProcessor;
 import gov.jordan.istd.security.SecurityUtils;
 import gov.jordan.istd.utils.PrivateKeyUtil;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.File;
 import java.security.PrivateKey;
 import java.util.Objects;
 
@@ -19,7 +19,6 @@ public class InvoiceSignProcessor extends ActionProcessor {
     private String certificatePath = "";
     private String outputFile = "";
     private PrivateKey privateKey;
-    private String xmlFile;
     private String certificateStr;
     private EInvoiceSigningResults signingResults;
 
@@ -49,14 +48,15 @@ public class InvoiceSignProcessor extends ActionProcessor {
 
     @Override
     protected boolean process() {
-        signingResults = signingHelper.signEInvoice(xmlFile, privateKey, certificateStr);
-        return Objects.nonNull(signingResults) && StringUtils.isNotBlank(signingResults.getSignedXml());
+        signingResults = signingHelper.signEInvoice(new File(xmlPath), new File(outputFile), privateKey, certificateStr);
+        return Objects.nonNull(signingResults);
     }
 
     @Override
     protected boolean output() {
         log.info(String.format("\ninvoice UUID [%s]\ninvoice Hash [%s]\n invoice QR Code: [%s]\n",signingResults.getInvoiceUUID(), signingResults.getInvoiceHash(), signingResults.getQrCode()));
-        return WriterHelper.writeFile(outputFile,signingResults.getSignedXml());
+        log.info(String.format("Signed invoice [%s]", outputFile));
+        return true;
     }
 
     private boolean readCertificate() {
@@ -86,8 +86,8 @@ public class InvoiceSignProcessor extends ActionProcessor {
     }
 
     private boolean readXmlFile() {
-        xmlFile = ReaderHelper.readFileAsString(xmlPath);
-        if (StringUtils.isBlank(xmlFile)) {
+        File xmlFile = new File(xmlPath);
+        if (!xmlFile.isFile() || xmlFile.length() == 0) {
             log.info(String.format("XML file [%s] is empty", xmlPath));
             return false;
         }
@@ -1,32 +1,185 @@
 package gov.jordan.istd.processor.impl;
 
+import gov.jordan.istd.dto.InvoiceValidationResult;
+import gov.jordan.istd.dto.RegulationRule;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.io.WriterHelper;
 import gov.jordan.istd.processor.ActionProcessor;
+import gov.jordan.istd.utils.JsonUtils;
+import gov.jordan.istd.validation.InvoiceCalculationValidator;
+import gov.jordan.istd.validation.InvoiceRegulationValidator;
+import gov.jordan.istd.validation.InvoiceSchemaValidator;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class InvoiceValidationProcessor extends ActionProcessor {
+    private static final String SUMMARY_FILE = "validation_summary.json";
+    // invoices validated in a row by one task, below this splitting costs more than it balances
+    private static final int TASK_SIZE = 4;
     String xmlFilePath="";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private List<File> xmlFiles;
+    private InvoiceValidationResult[] results;
+    private long[] ruleHits;
+    private long elapsedMillis;
+    private InvoiceSchemaValidator schemaValidator;
+    private InvoiceCalculationValidator calculationValidator;
+    private InvoiceRegulationValidator regulationValidator;
+    private final Map<String, Integer> ruleIndexes = new HashMap<>();
+
     @Override
     protected boolean loadArgs(String[] args) {
-        if(args.length!=1){
-            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar invoice-validate <xml-file-path>");
+        if(args.length!=1 && args.length!=2){
+            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar invoice-validate <xml-file-path-directory-or-glob> [threads]");
             return false;
         }
         xmlFilePath=args[0];
+        if (args.length == 2) {
+            if (!args[1].matches("\\d+") || Integer.parseInt(args[1]) < 1) {
+                log.info("Invalid threads count - must be a positive number");
+                return false;
+            }
+            threads = Integer.parseInt(args[1]);
+        }
         return true;
     }
 
     @Override
     protected boolean validateArgs() {
+        xmlFiles = ReaderHelper.listFiles(xmlFilePath);
+        if (xmlFiles.isEmpty()) {
+            log.info(String.format("No XML files found in [%s]", xmlFilePath));
+            return false;
+        }
         return true;
     }
 
     @Override
     protected boolean process() {
+        // compiled before the workers start, once for all the invoices
+        schemaValidator = InvoiceSchemaValidator.getInstance();
+        calculationValidator = InvoiceCalculationValidator.getInstance();
+        regulationValidator = InvoiceRegulationValidator.getInstance();
+        List<RegulationRule> rules = regulationValidator.getRules();
+        for (int index = 0; index < rules.size(); index++) {
+            ruleIndexes.put(rules.get(index).getId(), index);
+        }
+        results = new InvoiceValidationResult[xmlFiles.size()];
+        if (xmlFiles.size() == 1) {
+            results[0] = validate(xmlFiles.get(0));
+            return true;
+        }
+        log.info(String.format("Validating [%d] invoices on [%d] threads", xmlFiles.size(), threads));
+        long start = System.currentTimeMillis();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(threads);
+        try {
+            ruleHits = forkJoinPool.invoke(new ValidationTask(0, xmlFiles.size()));
+        } catch (Exception e) {
+            log.error("Failed to validate invoices", e);
+            return false;
+        } finally {
+            forkJoinPool.shutdownNow();
+        }
+        elapsedMillis = System.currentTimeMillis() - start;
         return true;
     }
 
+    // the file is read once, each validator parses the same bytes as serve does for a request
+    private InvoiceValidationResult validate(File xmlFile) {
+        byte[] xml;
+        try {
+            xml = Files.readAllBytes(xmlFile.toPath());
+        } catch (IOException e) {
+            log.error(String.format("Failed to read [%s]", xmlFile.getPath()), e);
+            InvoiceValidationResult result = new InvoiceValidationResult(xmlFile.getName());
+            result.getXsdErrors().add(e.getMessage());
+            result.setXsdValidation(InvoiceRegulationValidator.FAILED);
+            result.setCalculationsRules(InvoiceRegulationValidator.FAILED);
+            result.setRegulationsRules(InvoiceRegulationValidator.FAILED);
+            return result;
+        }
+        InvoiceValidationResult result = schemaValidator.validate(new ByteArrayInputStream(xml), xmlFile.getName());
+        calculationValidator.validate(new ByteArrayInputStream(xml), result);
+        regulationValidator.validate(new ByteArrayInputStream(xml), result);
+        return result;
+    }
+
     @Override
     protected boolean output() {
-        log.info(String.format("XML file [%s] STATUS:\nXSD VALIDATION= [%s]\nCALCULATIONS RULES= [%s]\nREGULATIONS RULES= [%s]",xmlFilePath,"PASSED","PASSED","PASSED"));
-        return true;
+        if (xmlFiles.size() == 1) {
+            InvoiceValidationResult result = results[0];
+            log.info(String.format("XML file [%s] STATUS:\nXSD VALIDATION= [%s]\nCALCULATIONS RULES= [%s]\nREGULATIONS RULES= [%s]",xmlFilePath,result.getXsdValidation(),result.getCalculationsRules(),result.getRegulationsRules()));
+            result.getXsdErrors().forEach(error -> log.info(String.format("XSD ERROR: %s", error)));
+            result.getCalculationsErrors().forEach(error -> log.info(String.format("CALCULATIONS ERROR: %s", error)));
+            result.getRegulationsErrors().forEach(error -> log.info(String.format("REGULATIONS ERROR: %s", error)));
+            return true;
+        }
+        long xsdPassed = 0;
+        long calculationsPassed = 0;
+        long regulationsPassed = 0;
+        for (InvoiceValidationResult result : results) {
+            xsdPassed += InvoiceSchemaValidator.PASSED.equals(result.getXsdValidation()) ? 1 : 0;
+            calculationsPassed += InvoiceCalculationValidator.PASSED.equals(result.getCalculationsRules()) ? 1 : 0;
+            regulationsPassed += InvoiceRegulationValidator.PASSED.equals(result.getRegulationsRules()) ? 1 : 0;
+        }
+        log.info(String.format("[%d] of [%d] invoices passed XSD validation, [%d] the calculation rules and [%d] the regulation rules in [%d] ms",
+                xsdPassed, results.length, calculationsPassed, regulationsPassed, elapsedMillis));
+        logRuleHits();
+        String summaryFile = new File(xmlFiles.get(0).getAbsoluteFile().getParentFile(), SUMMARY_FILE).getPath();
+        log.info(String.format("Validation summary [%s]", summaryFile));
+        return WriterHelper.writeFile(summaryFile, JsonUtils.toJson(results));
+    }
+
+    // the regulation rules by the number of invoices failing them, most failed first
+    private void logRuleHits() {
+        StringBuilder histogram = new StringBuilder("Invoices failing each regulation rule:");
+        regulationValidator.getRules().stream()
+                .sorted(Comparator.comparingLong((RegulationRule rule) -> -ruleHits[ruleIndexes.get(rule.getId())]).thenComparing(RegulationRule::getId))
+                .forEach(rule -> histogram.append(String.format("\n[%s] [%d] %s", rule.getId(), ruleHits[ruleIndexes.get(rule.getId())], rule.getDescription())));
+        log.info(histogram.toString());
+    }
+
+    // validates a range of the invoices, halving it until it is small enough, and counts the invoices failing each rule
+    private class ValidationTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        private ValidationTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                ValidationTask left = new ValidationTask(from, middle);
+                left.fork();
+                long[] hits = new ValidationTask(middle, to).compute();
+                long[] leftHits = left.join();
+                for (int index = 0; index < hits.length; index++) {
+                    hits[index] += leftHits[index];
+                }
+                return hits;
+            }
+            long[] hits = new long[ruleIndexes.size()];
+            for (int index = from; index < to; index++) {
+                results[index] = validate(xmlFiles.get(index));
+                for (String ruleId : results[index].getFailedRules()) {
+                    hits[ruleIndexes.get(ruleId)]++;
+                }
+            }
+            return hits;
+        }
     }
 }
@@ -6,6 +6,7 @@ import gov.jordan.istd.dto.ComplianceInvoiceResponse;
 import gov.jordan.istd.dto.CsrConfigDto;
 import gov.jordan.istd.dto.EInvoiceSigningResults;
 import gov.jordan.istd.helper.RequesterGeneratorHelper;
+import gov.jordan.istd.helper.SignerSession;
 import gov.jordan.istd.helper.SigningHelper;
 import gov.jordan.istd.io.ReaderHelper;
 import gov.jordan.istd.io.WriterHelper;
@@ -22,12 +23,20 @@ import java.security.PrivateKey;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class OnboardProcessor extends ActionProcessor {
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    // a credit note follows the invoice it credits, whose number, UUID and total it refers to
+    private static final String[] SAMPLES = {"samples/b2b_invoice.xml", "samples/b2b_credit.xml", "samples/b2c_invoice.xml", "samples/b2c_credit.xml"};
+    private static final String PAYABLE_AMOUNT_START = "<cbc:PayableAmount currencyID=\"JOD\">";
+    private static final String PAYABLE_AMOUNT_END = "</cbc:PayableAmount>";
 
     private String outputDirectory = "";
+    private String baseFileName;
     private String configFilePath = "";
     private String csrEncoded = "";
     private PrivateKey privateKey;
@@ -38,8 +47,8 @@ public class OnboardProcessor extends ActionProcessor {
     private String complianceCertificateStr;
     private CertificateResponse complianceCsrResponse;
     private CertificateResponse prodCertificateResponse;
-    private final Queue<String> testQueue = new ArrayBlockingQueue<>(10);
-    private final Map<String,String> signedXmlMap=new HashMap<>();
+    private final List<String> testInvoices = new ArrayList<>();
+    private final Map<String,String> signedXmlMap=new LinkedHashMap<>();
     private final SigningHelper signingHelper=new SigningHelper();
     private final RequesterGeneratorHelper requesterGeneratorHelper=new RequesterGeneratorHelper();
     private FotaraClient client;
@@ -117,6 +126,7 @@ public class OnboardProcessor extends ActionProcessor {
             log.error("Failed to generate CSR and keys");
             return false;
         }
+        baseFileName = csrKeysProcessor.getBaseFileName();
         
         if(!loadPrivateKey()){
             log.info("Failed to load private key");
@@ -130,7 +140,7 @@ public class OnboardProcessor extends ActionProcessor {
             log.info("Failed to compliance csr");
             return false;
         }
-        if(!enrichTestQueue()){
+        if(!enrichTestInvoices()){
             log.info("Failed to create test xmls");
             return false;
         }
@@ -162,14 +172,6 @@ public class OnboardProcessor extends ActionProcessor {
 
     private boolean loadCsrConfigs() {
         try {
-            String timestamp = findLatestTimestamp();
-            if (timestamp == null) {
-                log.error("No CSR files found in output directory");
-                return false;
-            }
-            
-            String commonName = extractCommonNameFromDN(csrConfigDto.getSubjectDn());
-            String baseFileName = String.format("%s_%s", commonName, timestamp);
             String csrFile = outputDirectory + "/" + baseFileName + ".csr";
             
             csrEncoded = SecurityUtils.decrypt(ReaderHelper.readFileAsString(csrFile));
@@ -191,14 +193,6 @@ public class OnboardProcessor extends ActionProcessor {
 
     private boolean loadPrivateKey() {
         try {
-            String timestamp = findLatestTimestamp();
-            if (timestamp == null) {
-                log.error("No private key files found in output directory");
-                return false;
-            }
-            
-            String commonName = extractCommonNameFromDN(csrConfigDto.getSubjectDn());
-            String baseFileName = String.format("%s_%s", commonName, timestamp);
             String keyFile = outputDirectory + "/" + baseFileName + ".key";
             
             String privateKeyBase64 = SecurityUtils.decrypt(ReaderHelper.readFileAsString(keyFile));
@@ -216,49 +210,94 @@ public class OnboardProcessor extends ActionProcessor {
         return Objects.nonNull(prodCertificateResponse) && StringUtils.equalsIgnoreCase(prodCertificateResponse.getDispositionMessage(),"ISSUED");
     }
 
+    // every sample is signed in parallel and then submitted at once, the client keeping at most
+    // fotara.http.max.in.flight calls in flight, so the stage takes about as long as the slowest call
     private boolean complianceInvoices() {
+        long start = System.currentTimeMillis();
+        EInvoiceSigningResults[] signingResults = signTestInvoices();
+        if (Objects.isNull(signingResults)) {
+            return false;
+        }
+        List<CompletableFuture<ComplianceInvoiceResponse>> responses = new ArrayList<>(testInvoices.size());
+        for (EInvoiceSigningResults signingResult : signingResults) {
+            responses.add(Objects.isNull(signingResult) ? CompletableFuture.completedFuture(null)
+                    : client.complianceInvoiceAsync(complianceCsrResponse, requesterGeneratorHelper.generateEInvoiceRequest(signingResult)));
+        }
+        // collected in the order of the samples, whichever answer comes first
         boolean valid=true;
-        int counter=0;
-        while (!testQueue.isEmpty()) {
-            String xml=testQueue.poll();
-            EInvoiceSigningResults signingResults=signingHelper.signEInvoice(xml,privateKey,complianceCertificateStr);
-
-            String jsonBody= requesterGeneratorHelper.generateEInvoiceRequest(signingResults.getInvoiceHash(),signingResults.getInvoiceUUID(),signingResults.getSignedXml());
-            ComplianceInvoiceResponse complianceInvoiceResponse=client.complianceInvoice(complianceCsrResponse,jsonBody);
+        for (int index = 0; index < testInvoices.size(); index++) {
+            String xml = testInvoices.get(index);
+            if (Objects.isNull(signingResults[index])) {
+                log.info(String.format("Failed to sign compliance invoice [%s]", SAMPLES[index]));
+                valid=false;
+                continue;
+            }
+            ComplianceInvoiceResponse complianceInvoiceResponse = responses.get(index).join();
             if(Objects.isNull(complianceInvoiceResponse) || BooleanUtils.isNotTrue(complianceInvoiceResponse.isValid())){
                log.info(String.format("Failed to compliance invoice [%s] and error [%s]",
                        Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8)),
                        JsonUtils.toJson(complianceInvoiceResponse)));
                 valid=false;
             }else{
-                String id="einvoice_test_"+taxPayerNumber+"_"+deviceId+"_"+(counter++)+".xml";
-                signedXmlMap.put(id,signingResults.getSignedXml());
+                String id="einvoice_test_"+taxPayerNumber+"_"+deviceId+"_"+index+".xml";
+                signedXmlMap.put(id,signingResults[index].getSignedXml());
             }
         }
+        log.info(String.format("Compliance checked [%d] invoices in [%d] ms", testInvoices.size(), System.currentTimeMillis() - start));
         return valid;
     }
 
+    // the results in the order of the samples, null for the ones that could not be signed
+    private EInvoiceSigningResults[] signTestInvoices() {
+        SignerSession signerSession;
+        try {
+            signerSession = new SignerSession(privateKey, complianceCertificateStr);
+        } catch (Exception e) {
+            log.error("Failed to read compliance certificate", e);
+            return null;
+        }
+        EInvoiceSigningResults[] signingResults = new EInvoiceSigningResults[testInvoices.size()];
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(testInvoices.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<EInvoiceSigningResults>> futures = new ArrayList<>(testInvoices.size());
+            for (String xml : testInvoices) {
+                futures.add(executorService.submit(() -> signingHelper.signEInvoice(xml, signerSession)));
+            }
+            for (int index = 0; index < signingResults.length; index++) {
+                signingResults[index] = futures.get(index).get();
+            }
+        } catch (Exception e) {
+            log.error("Failed to sign compliance invoices", e);
+            return null;
+        } finally {
+            executorService.shutdownNow();
+        }
+        return signingResults;
+    }
+
     private boolean complianceCsr() {
         complianceCsrResponse=client.complianceCsr(otp,csrEncoded);
         complianceCertificateStr=new String(Base64.getDecoder().decode(complianceCsrResponse.getBinarySecurityToken()),StandardCharsets.UTF_8);
         return Objects.nonNull(complianceCsrResponse) && StringUtils.equalsIgnoreCase(complianceCsrResponse.getDispositionMessage(),"ISSUED");
     }
 
-    private boolean enrichTestQueue() {
-        boolean valid=false;
+    private boolean enrichTestInvoices() {
         try {
-            int counter=0;
-            testQueue.add(enrichFile(Objects.requireNonNull(ReaderHelper.readFileFromResource("samples/b2b_invoice.xml")),counter++));
-            testQueue.add(enrichFile(Objects.requireNonNull(ReaderHelper.readFileFromResource("samples/b2b_credit.xml")),counter++));
-            valid=true;
+            String payableAmount = "";
+            for (int counter = 0; counter < SAMPLES.length; counter++) {
+                String sample = Objects.requireNonNull(ReaderHelper.readFileFromResource(SAMPLES[counter]));
+                testInvoices.add(enrichFile(sample, counter, payableAmount));
+                payableAmount = StringUtils.defaultString(StringUtils.substringBetween(sample, PAYABLE_AMOUNT_START, PAYABLE_AMOUNT_END));
+            }
         }catch (Exception e){
-            log.error("Failed to enrich test queue",e);
+            log.error("Failed to enrich test invoices",e);
             return false;
         }
-        return valid;
+        return true;
     }
 
-    private String enrichFile(String file,int counter) {
+    // payableAmount is the total of the previous sample, the invoice a credit note refers to
+    private String enrichFile(String file,int counter,String payableAmount) {
         String id=taxPayerNumber+"_"+deviceId+"_"+counter;
         String orgId=taxPayerNumber+"_"+deviceId+"_"+(counter-1);
         LocalDateTime now = LocalDateTime.now();
@@ -271,47 +310,7 @@ public class OnboardProcessor extends ActionProcessor {
         enrichedFile = enrichedFile.replace("${VAT_NUMBER}", taxPayerNumber);
         enrichedFile = enrichedFile.replace("${TAXPAYER_NAME}", csrConfigDto.getEnName());
         enrichedFile= enrichedFile.replace("${DEVICE_ID}", deviceId);
+        enrichedFile= enrichedFile.replace("${PAYABLE_AMOUNT}", payableAmount);
         return enrichedFile;
     }
-
-    private String findLatestTimestamp() {
-        try {
-            java.io.File dir = new java.io.File(outputDirectory);
-            java.io.File[] files = dir.listFiles((d, name) -> name.endsWith(".csr") || name.endsWith(".key"));
-            if (files == null || files.length == 0) {
-                return null;
-            }
-
-            String latestTimestamp = null;
-            for (java.io.File file : files) {
-                String fileName = file.getName();
-                String[] parts = fileName.split("_");
-                if (parts.length >= 2) {
-                    String timestamp = parts[parts.length - 1].replace(".csr", "").replace(".key", "");
-                    if (latestTimestamp == null || timestamp.compareTo(latestTimestamp) > 0) {
-                        latestTimestamp = timestamp;
-                    }
-                }
-            }
-            return latestTimestamp;
-        } catch (Exception e) {
-            log.error("Failed to find latest timestamp", e);
-            return null;
-        }
-    }
-
-    private String extractCommonNameFromDN(String subjectDn) {
-        try {
-            String[] parts = subjectDn.split(",");
-            for (String part : parts) {
-                String trimmed = part.trim();
-                if (trimmed.toUpperCase().startsWith("CN=")) {
-                    return trimmed.substring(3).trim().replaceAll("[^a-zA-Z0-9_-]", "_");
-                }
-            }
-            return "CSR";
-        } catch (Exception e) {
-            return "CSR";
-        }
-    }
 }
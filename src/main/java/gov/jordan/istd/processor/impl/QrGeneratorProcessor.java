@@ -1,19 +1,38 @@
 package gov.jordan.istd.processor.impl;
 
+import gov.jordan.istd.dto.BatchSigningResult;
 import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.helper.SignedInvoiceQrHelper;
 import gov.jordan.istd.helper.SigningHelper;
 import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.io.WriterHelper;
 import gov.jordan.istd.processor.ActionProcessor;
 import gov.jordan.istd.security.SecurityUtils;
+import gov.jordan.istd.utils.JsonUtils;
 import gov.jordan.istd.utils.PrivateKeyUtil;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.File;
 import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class QrGeneratorProcessor extends ActionProcessor {
-    private final SigningHelper signingHelper = new SigningHelper();
+    private static final String SUMMARY_FILE = "qr_summary.json";
+    private static final String STATUS_GENERATED = "GENERATED";
+    private static final String STATUS_FAILED = "FAILED";
+
     private String xmlPath = "";
+    // without a key and certificate the invoices are already signed, their QR codes are read back instead of signing them again
+    private boolean signed;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private List<File> signedFiles;
+    private final List<BatchSigningResult> results = new ArrayList<>();
+    private long elapsedMillis;
     private String privateKeyPath = "";
     private String certificatePath = "";
     private PrivateKey privateKey;
@@ -23,8 +42,12 @@ public class QrGeneratorProcessor extends ActionProcessor {
 
     @Override
     protected boolean loadArgs(String[] args) {
+        if (args.length == 1 || args.length == 2) {
+            return loadSignedArgs(args);
+        }
         if (args.length != 3) {
-            System.out.println("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar generate-qr <xml-path> <private-key-path> <certificate-path>");
+            System.out.println("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar generate-qr <xml-path> <private-key-path> <certificate-path>\n" +
+                    "       java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar generate-qr <signed-xml-path-directory-or-glob> [threads]");
             return false;
         }
         xmlPath = args[0];
@@ -33,8 +56,29 @@ public class QrGeneratorProcessor extends ActionProcessor {
         return true;
     }
 
+    private boolean loadSignedArgs(String[] args) {
+        signed = true;
+        xmlPath = args[0];
+        if (args.length == 2) {
+            if (!args[1].matches("\\d+") || Integer.parseInt(args[1]) < 1) {
+                log.info("Invalid threads count - must be a positive number");
+                return false;
+            }
+            threads = Integer.parseInt(args[1]);
+        }
+        return true;
+    }
+
     @Override
     protected boolean validateArgs() {
+        if (signed) {
+            signedFiles = ReaderHelper.listFiles(xmlPath);
+            if (signedFiles.isEmpty()) {
+                log.info(String.format("No XML files found in [%s]", xmlPath));
+                return false;
+            }
+            return true;
+        }
         if (!readXmlFile()) return false;
         if (!readPrivateKey()) return false;
         return readCertificate();
@@ -42,16 +86,81 @@ public class QrGeneratorProcessor extends ActionProcessor {
 
     @Override
     protected boolean process() {
-        signingResults = signingHelper.signEInvoice(xmlFile, privateKey, certificateStr);
+        if (signed) {
+            return readSignedQrCodes();
+        }
+        signingResults = new SigningHelper().signEInvoice(xmlFile, privateKey, certificateStr);
         return Objects.nonNull(signingResults) && StringUtils.isNotBlank(signingResults.getQrCode());
     }
 
     @Override
     protected boolean output() {
+        if (signed) {
+            return outputSignedQrCodes();
+        }
         log.info(String.format("invoice Hash [%s]\n invoice QR Code: [%s]\n", signingResults.getInvoiceHash(), signingResults.getQrCode()));
         return true;
     }
 
+    private boolean readSignedQrCodes() {
+        SignedInvoiceQrHelper signedInvoiceQrHelper = new SignedInvoiceQrHelper();
+        if (isSingleFile()) {
+            signingResults = signedInvoiceQrHelper.readQrCode(signedFiles.get(0));
+            return Objects.nonNull(signingResults);
+        }
+        log.info(String.format("Reading the QR codes of [%d] signed invoices on [%d] threads", signedFiles.size(), threads));
+        long start = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BatchSigningResult>> futures = new ArrayList<>(signedFiles.size());
+            for (File signedFile : signedFiles) {
+                futures.add(executorService.submit(() -> readQrCode(signedInvoiceQrHelper, signedFile)));
+            }
+            for (Future<BatchSigningResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (Exception e) {
+            log.error("Failed to read the QR codes", e);
+            return false;
+        } finally {
+            executorService.shutdownNow();
+        }
+        elapsedMillis = System.currentTimeMillis() - start;
+        return true;
+    }
+
+    private BatchSigningResult readQrCode(SignedInvoiceQrHelper signedInvoiceQrHelper, File signedFile) {
+        BatchSigningResult result = new BatchSigningResult(signedFile.getName());
+        EInvoiceSigningResults qrResults = signedInvoiceQrHelper.readQrCode(signedFile);
+        if (Objects.isNull(qrResults)) {
+            result.setStatus(STATUS_FAILED);
+            result.setError("Failed to read the QR code");
+            return result;
+        }
+        result.setInvoiceUUID(qrResults.getInvoiceUUID());
+        result.setInvoiceHash(qrResults.getInvoiceHash());
+        result.setQrCode(qrResults.getQrCode());
+        result.setStatus(STATUS_GENERATED);
+        return result;
+    }
+
+    private boolean outputSignedQrCodes() {
+        if (isSingleFile()) {
+            log.info(String.format("invoice Hash [%s]\n invoice QR Code: [%s]\n", signingResults.getInvoiceHash(), signingResults.getQrCode()));
+            return true;
+        }
+        long generated = results.stream().filter(result -> STATUS_GENERATED.equals(result.getStatus())).count();
+        double rate = elapsedMillis == 0 ? generated : generated * 1000.0 / elapsedMillis;
+        log.info(String.format("Read [%d] of [%d] QR codes in [%d] ms (%.1f invoices/s)", generated, results.size(), elapsedMillis, rate));
+        String summaryFile = new File(signedFiles.get(0).getAbsoluteFile().getParentFile(), SUMMARY_FILE).getPath();
+        log.info(String.format("QR codes summary [%s]", summaryFile));
+        return WriterHelper.writeFile(summaryFile, JsonUtils.toJson(results));
+    }
+
+    private boolean isSingleFile() {
+        return new File(xmlPath).isFile();
+    }
+
     private boolean readCertificate() {
         certificateStr = ReaderHelper.readFileAsString(certificatePath);
         certificateStr=SecurityUtils.decrypt(certificateStr);
@@ -1,30 +1,27 @@
 package gov.jordan.istd.processor.impl;
 
 import gov.jordan.istd.client.FotaraClient;
-import gov.jordan.istd.dto.CertificateResponse;
+import gov.jordan.istd.client.InvoiceRequestBody;
 import gov.jordan.istd.dto.EInvoiceResponse;
-import gov.jordan.istd.helper.RequesterGeneratorHelper;
-import gov.jordan.istd.io.ReaderHelper;
-import gov.jordan.istd.io.WriterHelper;
+import gov.jordan.istd.dto.SubmissionResult;
+import gov.jordan.istd.outbox.OutboxEntry;
+import gov.jordan.istd.outbox.OutboxFlusher;
 import gov.jordan.istd.processor.ActionProcessor;
-import gov.jordan.istd.security.SecurityUtils;
 import gov.jordan.istd.utils.JsonUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import java.util.Base64;
-import java.util.Objects;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class ReportSubmitProcessor extends ActionProcessor {
 
     private String xmlPath = "";
 
-    private String signedXml;
-
     private FotaraClient client;
     private EInvoiceResponse eInvoiceResponse;
     private String clientId;
     private String secretKey;
-    private String encodedXml;
 
     @Override
     protected boolean loadArgs(String[] args) {
@@ -50,8 +47,9 @@ public class ReportSubmitProcessor extends ActionProcessor {
             log.info("Secret Key is required");
             return false;
         }
-        signedXml = ReaderHelper.readFileAsString(xmlPath);
-        if (StringUtils.isBlank(signedXml)) {
+        // only checked here, the file is streamed to Fotara without being loaded
+        File signedXmlFile = new File(xmlPath);
+        if (!signedXmlFile.isFile() || signedXmlFile.length() == 0) {
             log.info(String.format("Invalid signed xml [%s]", xmlPath));
             return false;
         }
@@ -60,8 +58,17 @@ public class ReportSubmitProcessor extends ActionProcessor {
     }
     @Override
     protected boolean process() {
-        encodedXml = Base64.getEncoder().encodeToString(signedXml.getBytes());
-        client.reportInvoice(encodedXml, clientId, secretKey);
+        SubmissionResult result;
+        try {
+            result = client.reportInvoiceAsync(InvoiceRequestBody.ofFile(Paths.get(xmlPath)), clientId, secretKey).join();
+        } catch (IOException e) {
+            log.error(String.format("Failed to read signed xml [%s]", xmlPath), e);
+            return false;
+        }
+        if (OutboxFlusher.isUndelivered(result) || OutboxFlusher.isOutcomeUnknown(result)) {
+            return OutboxFlusher.enqueue(OutboxEntry.Kind.REPORT, clientId, xmlPath, result);
+        }
+        eInvoiceResponse = result.getResponse();
         return true;
     }
 
@@ -0,0 +1,205 @@
+package gov.jordan.istd.processor.impl;
+
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.helper.SignerSession;
+import gov.jordan.istd.helper.SigningHelper;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.outbox.Outbox;
+import gov.jordan.istd.processor.ActionProcessor;
+import gov.jordan.istd.security.SecurityUtils;
+import gov.jordan.istd.server.SigningServer;
+import gov.jordan.istd.utils.PrivateKeyUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.PrivateKey;
+import java.util.concurrent.CountDownLatch;
+
+public class ServeProcessor extends ActionProcessor {
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final String OUTBOX_FLUSH_INTERVAL_PROPERTY = "outbox.flush.interval.seconds";
+    private static final long DEFAULT_OUTBOX_FLUSH_INTERVAL_SECONDS = 30;
+    private static final String HOST_PROPERTY = "serve.host";
+    private static final String MAX_BODY_PROPERTY = "serve.max.body.mb";
+    private static final long DEFAULT_MAX_BODY_MB = 10;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private int port;
+    private String privateKeyPath = "";
+    private String certificatePath = "";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private PrivateKey privateKey;
+    private String certificateStr;
+    private SignerSession signerSession;
+
+    @Override
+    protected boolean loadArgs(String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            log.info("Usage: java -jar fotara-sdk-1.0.6-jar-with-dependencies.jar serve <port> <private-key-path> <certificate-path> [threads] [queue-size]");
+            return false;
+        }
+        if (!isPositiveNumber(args[0])) {
+            log.info("Invalid port - must be a positive number");
+            return false;
+        }
+        port = Integer.parseInt(args[0]);
+        privateKeyPath = args[1];
+        certificatePath = args[2];
+        if (args.length > 3) {
+            if (!isPositiveNumber(args[3])) {
+                log.info("Invalid threads count - must be a positive number");
+                return false;
+            }
+            threads = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            if (!isPositiveNumber(args[4])) {
+                log.info("Invalid queue size - must be a positive number");
+                return false;
+            }
+            queueSize = Integer.parseInt(args[4]);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean validateArgs() {
+        if (port > 65535) {
+            log.info(String.format("Invalid port [%d]", port));
+            return false;
+        }
+        if (!readPrivateKey()) return false;
+        if (!readCertificate()) return false;
+        return createSignerSession();
+    }
+
+    @Override
+    protected boolean process() {
+        Outbox outbox;
+        try {
+            outbox = new Outbox(Outbox.getDefaultDirectory());
+        } catch (IOException e) {
+            log.error(String.format("Failed to open outbox [%s]", Outbox.getDefaultDirectory().getPath()), e);
+            return false;
+        }
+        SigningServer server;
+        try {
+            server = new SigningServer(getHost(), port, threads, queueSize, getMaxBodyMb() * 1024 * 1024, new SigningHelper(),
+                    new FotaraClient(propertiesManager), outbox, getOutboxFlushIntervalSeconds(), signerSession);
+        } catch (Exception e) {
+            log.error(String.format("Failed to start server on port [%d]", port), e);
+            closeOutbox(outbox);
+            return false;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            closeOutbox(outbox);
+            stopped.countDown();
+        }));
+        server.start();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean output() {
+        return true;
+    }
+
+    private void closeOutbox(Outbox outbox) {
+        try {
+            outbox.close();
+        } catch (IOException e) {
+            log.error("Failed to close outbox", e);
+        }
+    }
+
+    private long getOutboxFlushIntervalSeconds() {
+        String value = System.getProperty(OUTBOX_FLUSH_INTERVAL_PROPERTY);
+        if (StringUtils.isBlank(value)) {
+            return DEFAULT_OUTBOX_FLUSH_INTERVAL_SECONDS;
+        }
+        if (!isPositiveNumber(value.trim())) {
+            log.warn(String.format("Invalid %s [%s], using default [%d]", OUTBOX_FLUSH_INTERVAL_PROPERTY, value, DEFAULT_OUTBOX_FLUSH_INTERVAL_SECONDS));
+            return DEFAULT_OUTBOX_FLUSH_INTERVAL_SECONDS;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    // loopback unless -Dserve.host names the address to listen on (0.0.0.0 for every interface)
+    private InetAddress getHost() {
+        String value = System.getProperty(HOST_PROPERTY);
+        if (StringUtils.isBlank(value)) {
+            return InetAddress.getLoopbackAddress();
+        }
+        try {
+            InetAddress host = InetAddress.getByName(value.trim());
+            if (!host.isLoopbackAddress()) {
+                log.warn(String.format("Listening on [%s], the server has no authentication, anyone who can reach it can sign with the device key", value));
+            }
+            return host;
+        } catch (UnknownHostException e) {
+            log.warn(String.format("Invalid %s [%s], listening on the loopback address", HOST_PROPERTY, value));
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+
+    private long getMaxBodyMb() {
+        String value = System.getProperty(MAX_BODY_PROPERTY);
+        if (StringUtils.isBlank(value)) {
+            return DEFAULT_MAX_BODY_MB;
+        }
+        if (!value.trim().matches("\\d{1,4}") || Long.parseLong(value.trim()) < 1) {
+            log.warn(String.format("Invalid %s [%s], using default [%d]", MAX_BODY_PROPERTY, value, DEFAULT_MAX_BODY_MB));
+            return DEFAULT_MAX_BODY_MB;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    private boolean isPositiveNumber(String value) {
+        return value.matches("\\d{1,9}") && Integer.parseInt(value) > 0;
+    }
+
+    // parses the certificate once, every invoice then reuses it
+    private boolean createSignerSession() {
+        try {
+            signerSession = new SignerSession(privateKey, certificateStr);
+        } catch (Exception e) {
+            log.error(String.format("Failed to read certificate [%s]", certificatePath), e);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean readCertificate() {
+        certificateStr = ReaderHelper.readFileAsString(certificatePath);
+        if (StringUtils.isBlank(certificateStr)) {
+            log.info(String.format("Certificate file [%s] is empty", certificatePath));
+            return false;
+        }
+        certificateStr = SecurityUtils.decrypt(certificateStr);
+        return true;
+    }
+
+    private boolean readPrivateKey() {
+        String privateKeyFile = ReaderHelper.readFileAsString(privateKeyPath);
+        if (StringUtils.isBlank(privateKeyFile)) {
+            log.info(String.format("Private key file [%s] is empty", privateKeyPath));
+            return false;
+        }
+        try {
+            privateKeyFile = SecurityUtils.decrypt(privateKeyFile);
+            privateKey = PrivateKeyUtil.loadPrivateKey(privateKeyFile, null);
+        } catch (Exception e) {
+            log.error(String.format("Failed to read private key [%s]", privateKeyPath), e);
+            return false;
+        }
+        return true;
+    }
+}
@@ -13,12 +13,16 @@ public class InputResolver {
         switch (action) {
             case "generate-csr-keys":
                 return new CsrKeysProcessor();
+            case "generate-csr-keys-batch":
+                return new CsrKeysBatchProcessor();
             case "onboard":
                 return new OnboardProcessor();
             case "invoice-validate":
                 return new InvoiceValidationProcessor();
             case "invoice-sign":
                 return new InvoiceSignProcessor();
+            case "invoice-sign-batch":
+                return new InvoiceSignBatchProcessor();
             case "generate-qr":
                 return new QrGeneratorProcessor();
             case "submit-clearance":
@@ -29,6 +33,10 @@ public class InputResolver {
                 return new ComplianceSubmitProcessor();
             case "decrypt":
                     return new DecryptProcess();
+            case "serve":
+                return new ServeProcessor();
+            case "flush-outbox":
+                return new FlushOutboxProcessor();
             default:
                 logger.error("Invalid action, allowed actions are:\n" +
                         "1-generate-csr-keys: to Generate CSR and Key Pairs\n" +
@@ -39,7 +47,11 @@ public class InputResolver {
                         "6-submit-clearance: to submit Invoice to Fotara\n"+
                         "7-submit-report: to submit Invoice to Fotara\n"+
                         "8-compliance-invoice: to submit Invoice to Fotara\n"+
-                        "9-decrypt: to decrypt file\n");
+                        "9-decrypt: to decrypt file\n"+
+                        "10-invoice-sign-batch: to sign a directory of Invoices\n"+
+                        "11-serve: to run a local signing server\n"+
+                        "12-flush-outbox: to send the invoices queued while Fotara was unreachable\n"+
+                        "13-generate-csr-keys-batch: to Generate CSR and Key Pairs for a list of devices\n");
                 return null;
         }
 
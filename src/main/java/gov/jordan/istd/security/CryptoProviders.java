@@ -0,0 +1,92 @@
+package gov.jordan.istd.security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide crypto setup. BouncyCastle is appended to the provider list once, when this class is loaded, and the list
+ * is never changed afterwards, so signing threads only ever read it. CertificateFactory, KeyFactory and Signature are
+ * not documented as thread safe, each thread keeps its own instance per algorithm instead of looking the providers up
+ * on every invoice.
+ */
+public final class CryptoProviders {
+    private static final Provider bouncyCastleProvider = registerBouncyCastle();
+    private static final ThreadLocal<CertificateFactory> certificateFactory = ThreadLocal.withInitial(CryptoProviders::newCertificateFactory);
+    private static final ThreadLocal<Map<String, KeyFactory>> keyFactories = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, Signature>> signatures = ThreadLocal.withInitial(HashMap::new);
+
+    private CryptoProviders() {
+    }
+
+    // loads the class, which registers the providers
+    public static void init() {
+    }
+
+    public static Provider getBouncyCastleProvider() {
+        return bouncyCastleProvider;
+    }
+
+    public static CertificateFactory getCertificateFactory() {
+        return certificateFactory.get();
+    }
+
+    public static KeyFactory getKeyFactory(String algorithm) throws GeneralSecurityException {
+        Map<String, KeyFactory> factories = keyFactories.get();
+        KeyFactory keyFactory = factories.get(algorithm);
+        if (keyFactory == null) {
+            keyFactory = KeyFactory.getInstance(algorithm);
+            factories.put(algorithm, keyFactory);
+        }
+        return keyFactory;
+    }
+
+    // the instance is re-initialised by initSign or initVerify before every use
+    public static Signature getSignature(String algorithm) throws GeneralSecurityException {
+        Map<String, Signature> instances = signatures.get();
+        Signature signature = instances.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            instances.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    // same as getSignature, from the given provider only
+    public static Signature getSignature(String algorithm, Provider provider) throws GeneralSecurityException {
+        Map<String, Signature> instances = signatures.get();
+        String key = algorithm + "/" + provider.getName();
+        Signature signature = instances.get(key);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm, provider);
+            instances.put(key, signature);
+        }
+        return signature;
+    }
+
+    private static Provider registerBouncyCastle() {
+        synchronized (Security.class) {
+            Provider provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+            if (provider == null) {
+                provider = new BouncyCastleProvider();
+                Security.addProvider(provider);
+            }
+            return provider;
+        }
+    }
+
+    private static CertificateFactory newCertificateFactory() {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -3,7 +3,6 @@ package gov.jordan.istd.security;
 import org.apache.log4j.Logger;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
-import java.security.Security;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -14,7 +13,7 @@ public class SecurityUtils {
     private final static Logger log=Logger.getLogger("SecurityUtils");
 
     static {
-        Security.addProvider(new BouncyCastleProvider());
+        CryptoProviders.init();
     }
     private static final String ALGORITHM = "AES/CBC/PKCS5Padding";
     private static final byte[] KEY_BYTES = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
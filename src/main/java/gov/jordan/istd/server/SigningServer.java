@@ -0,0 +1,368 @@
+package gov.jordan.istd.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gov.jordan.istd.client.FotaraClient;
+import gov.jordan.istd.client.InvoiceRequestBody;
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import gov.jordan.istd.dto.InvoiceValidationResult;
+import gov.jordan.istd.dto.OutboxFlushResult;
+import gov.jordan.istd.dto.SubmissionResult;
+import gov.jordan.istd.helper.SignerSession;
+import gov.jordan.istd.helper.SigningHelper;
+import gov.jordan.istd.metrics.MetricsRegistry;
+import gov.jordan.istd.outbox.Outbox;
+import gov.jordan.istd.outbox.OutboxEntry;
+import gov.jordan.istd.outbox.OutboxFlusher;
+import gov.jordan.istd.utils.JsonUtils;
+import gov.jordan.istd.validation.InvoiceCalculationValidator;
+import gov.jordan.istd.validation.InvoiceRegulationValidator;
+import gov.jordan.istd.validation.InvoiceSchemaValidator;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local HTTP API keeping the signing key, certificate, compiled resources and the Fotara client in memory between
+ * requests. There is no authentication, anyone who can reach the port can sign with the device key, so it listens on
+ * the loopback address unless told otherwise, and request bodies above a size limit are refused with 413. Requests are
+ * run on a fixed pool of workers behind a bounded queue, when the queue is full the request is answered with 503
+ * straight away instead of waiting.
+ * <p>
+ * Submissions that never reached Fotara (the connection could not be opened, 429 or 503) are put in the outbox as
+ * pending and answered with 202. A single background thread flushes the outbox on a fixed delay whenever it holds
+ * pending invoices, with the secret key each client last submitted with. Submissions whose outcome is unknown (a
+ * request timeout, a broken connection or any other 5xx) are also answered with 202, but kept in the outbox as
+ * unresolved: they are never sent again and have to be checked against Fotara by hand.
+ */
+public class SigningServer {
+    private static final String POST = "POST";
+    private static final String GET = "GET";
+    private static final String CLIENT_ID_HEADER = "Client-Id";
+    private static final String SECRET_KEY_HEADER = "Secret-Key";
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+    private final Logger log = Logger.getLogger("SigningServer");
+    private final InvoiceSchemaValidator schemaValidator = InvoiceSchemaValidator.getInstance();
+    private final InvoiceCalculationValidator calculationValidator = InvoiceCalculationValidator.getInstance();
+    private final InvoiceRegulationValidator regulationValidator = InvoiceRegulationValidator.getInstance();
+    private final SigningHelper signingHelper;
+    private final FotaraClient fotaraClient;
+    private final SignerSession signerSession;
+    private final ThreadPoolExecutor workers;
+    private final Outbox outbox;
+    private final OutboxFlusher outboxFlusher;
+    // the secret key last sent by each client, only kept in memory for flushing the outbox
+    private final Map<String, String> secretKeys = new ConcurrentHashMap<>();
+    private final long outboxFlushIntervalSeconds;
+    private final ScheduledExecutorService outboxDrain;
+    private final HttpServer httpServer;
+    private final MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+    private final long maxBodyBytes;
+
+    public SigningServer(InetAddress host, int port, int threads, int queueSize, long maxBodyBytes, SigningHelper signingHelper,
+                         FotaraClient fotaraClient, Outbox outbox, long outboxFlushIntervalSeconds, SignerSession signerSession) throws IOException {
+        this.maxBodyBytes = maxBodyBytes;
+        this.signingHelper = signingHelper;
+        this.fotaraClient = fotaraClient;
+        this.outbox = outbox;
+        this.outboxFlusher = new OutboxFlusher(outbox, fotaraClient, secretKeys::get);
+        this.outboxFlushIntervalSeconds = outboxFlushIntervalSeconds;
+        this.outboxDrain = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.signerSession = signerSession;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+        // otherwise every response on a kept-alive connection waits for the client's delayed ACK (about 40 ms)
+        if (Objects.isNull(System.getProperty(NO_DELAY_PROPERTY))) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+        this.httpServer = HttpServer.create(new InetSocketAddress(host, port), 0);
+        httpServer.createContext("/sign", exchange -> dispatch(exchange, POST, this::sign));
+        httpServer.createContext("/qr", exchange -> dispatch(exchange, POST, this::qr));
+        httpServer.createContext("/validate", exchange -> dispatch(exchange, POST, this::validate));
+        httpServer.createContext("/submit-clearance", exchange -> dispatch(exchange, POST, this::submitClearance));
+        httpServer.createContext("/submit-report", exchange -> dispatch(exchange, POST, this::submitReport));
+        httpServer.createContext("/health", exchange -> dispatch(exchange, GET, this::health));
+        // answered on the dispatcher thread so metrics can still be scraped while the workers are saturated
+        httpServer.createContext("/metrics", this::metrics);
+        // handlers only hand the exchange over to the workers, so the server's own dispatcher thread is enough
+        httpServer.setExecutor(null);
+    }
+
+    public void start() {
+        httpServer.start();
+        outboxDrain.scheduleWithFixedDelay(this::drainOutbox, 0, outboxFlushIntervalSeconds, TimeUnit.SECONDS);
+        log.info(String.format("Listening on [%s:%d] with [%d] workers and a queue of [%d] requests",
+                httpServer.getAddress().getAddress().getHostAddress(), httpServer.getAddress().getPort(),
+                workers.getCorePoolSize(), workers.getQueue().remainingCapacity()));
+    }
+
+    public void stop() {
+        httpServer.stop(1);
+        // a flush in progress is left to finish, whatever it does not mark stays pending for the next start
+        outboxDrain.shutdown();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Server stopped");
+    }
+
+    private void dispatch(HttpExchange exchange, String method, RequestHandler handler) throws IOException {
+        if (!method.equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, String.format("Only %s is allowed", method));
+            exchange.close();
+            return;
+        }
+        try {
+            workers.execute(() -> handle(exchange, handler));
+        } catch (RejectedExecutionException e) {
+            metricsRegistry.counter("server.rejected").increment();
+            exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+            sendError(exchange, 503, "Server is busy, try again later");
+            exchange.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange, RequestHandler handler) {
+        long start = System.nanoTime();
+        try {
+            handler.handle(exchange);
+        } catch (BodyTooLargeException e) {
+            metricsRegistry.counter("server.too_large").increment();
+            try {
+                sendError(exchange, 413, String.format("Request body is larger than [%d] bytes", maxBodyBytes));
+            } catch (IOException ignored) {
+                // the client is already gone
+            }
+        } catch (Exception e) {
+            log.error(String.format("Failed to handle [%s]", exchange.getRequestURI()), e);
+            try {
+                sendError(exchange, 500, "Internal error");
+            } catch (IOException ignored) {
+                // the client is already gone
+            }
+        } finally {
+            exchange.close();
+            metricsRegistry.timer("server." + exchange.getHttpContext().getPath().substring(1)).recordSince(start);
+        }
+    }
+
+    private void sign(HttpExchange exchange) throws IOException {
+        String xml = new String(readBody(exchange), StandardCharsets.UTF_8);
+        if (StringUtils.isBlank(xml)) {
+            sendError(exchange, 400, "Invoice XML is required");
+            return;
+        }
+        EInvoiceSigningResults signingResults = signingHelper.signEInvoice(xml, signerSession);
+        if (Objects.isNull(signingResults)) {
+            sendError(exchange, 422, "Failed to sign invoice");
+            return;
+        }
+        sendJson(exchange, 200, signingResults);
+    }
+
+    private void qr(HttpExchange exchange) throws IOException {
+        String xml = new String(readBody(exchange), StandardCharsets.UTF_8);
+        if (StringUtils.isBlank(xml)) {
+            sendError(exchange, 400, "Invoice XML is required");
+            return;
+        }
+        EInvoiceSigningResults signingResults = signingHelper.signEInvoice(xml, signerSession);
+        if (Objects.isNull(signingResults) || StringUtils.isBlank(signingResults.getQrCode())) {
+            sendError(exchange, 422, "Failed to generate QR code");
+            return;
+        }
+        Map<String, String> response = new LinkedHashMap<>();
+        response.put("invoiceUUID", signingResults.getInvoiceUUID());
+        response.put("invoiceHash", signingResults.getInvoiceHash());
+        response.put("qrCode", signingResults.getQrCode());
+        sendJson(exchange, 200, response);
+    }
+
+    // same report as the invoice-validate action, with the schema validator compiled at startup
+    private void validate(HttpExchange exchange) throws IOException {
+        byte[] xml = readBody(exchange);
+        if (xml.length == 0) {
+            sendError(exchange, 400, "Invoice XML is required");
+            return;
+        }
+        InvoiceValidationResult result = schemaValidator.validate(new ByteArrayInputStream(xml), "request");
+        calculationValidator.validate(new ByteArrayInputStream(xml), result);
+        regulationValidator.validate(new ByteArrayInputStream(xml), result);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("xsdValidation", result.getXsdValidation());
+        response.put("calculationsRules", result.getCalculationsRules());
+        response.put("regulationsRules", result.getRegulationsRules());
+        if (!result.getXsdErrors().isEmpty()) {
+            response.put("xsdErrors", result.getXsdErrors());
+        }
+        if (!result.getCalculationsErrors().isEmpty()) {
+            response.put("calculationsErrors", result.getCalculationsErrors());
+        }
+        if (!result.getRegulationsErrors().isEmpty()) {
+            response.put("regulationsErrors", result.getRegulationsErrors());
+        }
+        sendJson(exchange, 200, response);
+    }
+
+    private void submitClearance(HttpExchange exchange) throws IOException {
+        submit(exchange, false);
+    }
+
+    private void submitReport(HttpExchange exchange) throws IOException {
+        submit(exchange, true);
+    }
+
+    private void submit(HttpExchange exchange, boolean report) throws IOException {
+        String clientId = exchange.getRequestHeaders().getFirst(CLIENT_ID_HEADER);
+        String secretKey = exchange.getRequestHeaders().getFirst(SECRET_KEY_HEADER);
+        if (StringUtils.isBlank(clientId) || StringUtils.isBlank(secretKey)) {
+            sendError(exchange, 400, String.format("%s and %s headers are required", CLIENT_ID_HEADER, SECRET_KEY_HEADER));
+            return;
+        }
+        byte[] signedXml = readBody(exchange);
+        if (isBlank(signedXml)) {
+            sendError(exchange, 400, "Signed invoice XML is required");
+            return;
+        }
+        HttpRequest.BodyPublisher requestBody = InvoiceRequestBody.ofBytes(signedXml);
+        SubmissionResult result = (report
+                ? fotaraClient.reportInvoiceAsync(requestBody, clientId, secretKey)
+                : fotaraClient.submitInvoiceAsync(requestBody, clientId, secretKey)).join();
+        boolean outcomeUnknown = OutboxFlusher.isOutcomeUnknown(result);
+        if (outcomeUnknown || OutboxFlusher.isUndelivered(result)) {
+            secretKeys.put(clientId, secretKey);
+            int id = OutboxFlusher.enqueue(outbox, new OutboxEntry(report ? OutboxEntry.Kind.REPORT : OutboxEntry.Kind.CLEARANCE,
+                    clientId, System.currentTimeMillis(), signedXml), result);
+            Map<String, Object> response = new LinkedHashMap<>();
+            // an unresolved invoice is not sent again, it has to be checked against Fotara by hand
+            response.put("queued", !outcomeUnknown);
+            response.put("unresolved", outcomeUnknown);
+            response.put("outboxId", id);
+            response.put("error", StringUtils.defaultIfBlank(result.getError(), String.format("Fotara answered [%d]", result.getStatusCode())));
+            sendJson(exchange, 202, response);
+            return;
+        }
+        if (result.isSuccessful()) {
+            secretKeys.put(clientId, secretKey);
+        }
+        if (Objects.isNull(result.getResponse())) {
+            sendError(exchange, 502, "Failed to submit invoice to Fotara");
+            return;
+        }
+        sendJson(exchange, result.getStatusCode(), result.getResponse());
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", "UP");
+        response.put("activeRequests", workers.getActiveCount());
+        response.put("queuedRequests", workers.getQueue().size());
+        response.put("outboxPending", outbox.getPendingCount());
+        sendJson(exchange, 200, response);
+    }
+
+    private void drainOutbox() {
+        try {
+            if (outbox.getPendingCount() == 0) {
+                return;
+            }
+            OutboxFlushResult flushResult = outboxFlusher.flush();
+            log.info(String.format("Outbox flushed [%s]", JsonUtils.toJson(flushResult)));
+        } catch (Exception e) {
+            // an exception would cancel the schedule
+            log.error("Failed to flush outbox", e);
+        }
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!GET.equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, String.format("Only %s is allowed", GET));
+                return;
+            }
+            byte[] bytes = metricsRegistry.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // refused from the Content-Length header when it is sent, otherwise reading stops one byte past the limit
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (Objects.nonNull(contentLength) && contentLength.matches("\\d{1,18}") && Long.parseLong(contentLength) > maxBodyBytes) {
+            throw new BodyTooLargeException();
+        }
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            byte[] body = inputStream.readNBytes((int) Math.min(maxBodyBytes + 1, Integer.MAX_VALUE - 8));
+            if (body.length > maxBodyBytes) {
+                throw new BodyTooLargeException();
+            }
+            return body;
+        }
+    }
+
+    private boolean isBlank(byte[] body) {
+        for (byte b : body) {
+            if (!Character.isWhitespace(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String error) throws IOException {
+        Map<String, String> response = new LinkedHashMap<>();
+        response.put("error", error);
+        sendJson(exchange, status, response);
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = StringUtils.defaultString(JsonUtils.toJson(body)).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private interface RequestHandler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static class BodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
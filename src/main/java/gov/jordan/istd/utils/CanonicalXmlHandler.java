@@ -0,0 +1,232 @@
+package gov.jordan.istd.utils;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the SAX events of a whole document as Canonical XML 1.1 without comments
+ * (http://www.w3.org/2006/12/xml-c14n11) straight into a writer, so the canonical form
+ * never has to be held in memory.
+ */
+public class CanonicalXmlHandler extends DefaultHandler {
+    private static final String XML_PREFIX = "xml";
+    private static final String XMLNS = "xmlns";
+    private static final Comparator<String[]> ATTRIBUTE_ORDER = Comparator.<String[], String>comparing(attribute -> attribute[0])
+            .thenComparing(attribute -> attribute[1]);
+
+    private final Writer writer;
+    // namespaces in scope of the current element as rendered so far, one map per open element
+    private final Deque<Map<String, String>> renderedNamespaces = new ArrayDeque<>();
+    private final Map<String, String> pendingNamespaces = new TreeMap<>();
+    private int depth;
+    private boolean rootClosed;
+
+    public CanonicalXmlHandler(Writer writer) {
+        this.writer = writer;
+        Map<String, String> documentNamespaces = new HashMap<>();
+        documentNamespaces.put("", "");
+        renderedNamespaces.push(documentNamespaces);
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        if (!XML_PREFIX.equals(prefix)) {
+            pendingNamespaces.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        List<String[]> sortedAttributes = new ArrayList<>(attributes.getLength());
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String attributeName = attributes.getQName(i);
+            if (XMLNS.equals(attributeName)) {
+                pendingNamespaces.put("", attributes.getValue(i));
+            } else if (attributeName.startsWith(XMLNS + ":")) {
+                startPrefixMapping(attributeName.substring(XMLNS.length() + 1), attributes.getValue(i));
+            } else {
+                String attributeUri = attributes.getURI(i) == null ? "" : attributes.getURI(i);
+                if (!attributeUri.isEmpty()) {
+                    declareIfMissing(prefixOf(attributeName), attributeUri);
+                }
+                sortedAttributes.add(new String[]{attributeUri, localNameOf(attributeName, attributes.getLocalName(i)), attributeName, attributes.getValue(i)});
+            }
+        }
+        declareIfMissing(prefixOf(qName), uri);
+        sortedAttributes.sort(ATTRIBUTE_ORDER);
+
+        Map<String, String> parentNamespaces = renderedNamespaces.peek();
+        Map<String, String> elementNamespaces = new HashMap<>(parentNamespaces);
+        try {
+            writer.write('<');
+            writer.write(qName);
+            for (Map.Entry<String, String> namespace : pendingNamespaces.entrySet()) {
+                String prefix = namespace.getKey();
+                String namespaceUri = namespace.getValue();
+                if (namespaceUri.equals(parentNamespaces.get(prefix))) {
+                    continue;
+                }
+                elementNamespaces.put(prefix, namespaceUri);
+                writer.write(' ');
+                writer.write(prefix.isEmpty() ? XMLNS : XMLNS + ":" + prefix);
+                writer.write("=\"");
+                writeEscapedAttribute(namespaceUri);
+                writer.write('"');
+            }
+            for (String[] attribute : sortedAttributes) {
+                writer.write(' ');
+                writer.write(attribute[2]);
+                writer.write("=\"");
+                writeEscapedAttribute(attribute[3]);
+                writer.write('"');
+            }
+            writer.write('>');
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+        pendingNamespaces.clear();
+        renderedNamespaces.push(elementNamespaces);
+        depth++;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        try {
+            writer.write("</");
+            writer.write(qName);
+            writer.write('>');
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+        renderedNamespaces.pop();
+        depth--;
+        rootClosed = depth == 0;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        if (depth == 0) {
+            return;
+        }
+        try {
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                switch (c) {
+                    case '&':
+                        writer.write("&amp;");
+                        break;
+                    case '<':
+                        writer.write("&lt;");
+                        break;
+                    case '>':
+                        writer.write("&gt;");
+                        break;
+                    case '\r':
+                        writer.write("&#xD;");
+                        break;
+                    default:
+                        writer.write(c);
+                }
+            }
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        try {
+            if (rootClosed) {
+                writer.write('\n');
+            }
+            writer.write("<?");
+            writer.write(target);
+            if (data != null && !data.isEmpty()) {
+                writer.write(' ');
+                writer.write(data);
+            }
+            writer.write("?>");
+            if (depth == 0 && !rootClosed) {
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    private void declareIfMissing(String prefix, String uri) {
+        String namespaceUri = uri == null ? "" : uri;
+        if (XML_PREFIX.equals(prefix) || pendingNamespaces.containsKey(prefix)) {
+            return;
+        }
+        if (!namespaceUri.equals(renderedNamespaces.peek().get(prefix))) {
+            pendingNamespaces.put(prefix, namespaceUri);
+        }
+    }
+
+    private void writeEscapedAttribute(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                case '\t':
+                    writer.write("&#x9;");
+                    break;
+                case '\n':
+                    writer.write("&#xA;");
+                    break;
+                case '\r':
+                    writer.write("&#xD;");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+
+    private static String prefixOf(String qName) {
+        int colon = qName.indexOf(':');
+        return colon < 0 ? "" : qName.substring(0, colon);
+    }
+
+    private static String localNameOf(String qName, String localName) {
+        if (localName != null && !localName.isEmpty()) {
+            return localName;
+        }
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+}
@@ -0,0 +1,22 @@
+package gov.jordan.istd.utils;
+
+import java.util.Map;
+
+/**
+ * Prefixes of the UBL and signature namespaces used in invoice paths, shared by the signing and the validation so that
+ * validating an invoice does not load the signing classes.
+ */
+public final class InvoiceNamespaces {
+    public static final Map<String, String> NAMESPACES = Map.of(
+            "cac", "urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2",
+            "cbc", "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2",
+            "ext", "urn:oasis:names:specification:ubl:schema:xsd:CommonExtensionComponents-2",
+            "sig", "urn:oasis:names:specification:ubl:schema:xsd:CommonSignatureComponents-2",
+            "sac", "urn:oasis:names:specification:ubl:schema:xsd:SignatureAggregateComponents-2",
+            "sbc", "urn:oasis:names:specification:ubl:schema:xsd:SignatureBasicComponents-2",
+            "ds", "http://www.w3.org/2000/09/xmldsig#",
+            "xades", "http://uri.etsi.org/01903/v1.3.2#");
+
+    private InvoiceNamespaces() {
+    }
+}
@@ -1,5 +1,6 @@
 package gov.jordan.istd.utils;
 
+import gov.jordan.istd.security.CryptoProviders;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
@@ -56,10 +57,10 @@ public class PrivateKeyUtil {
         PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(keyBytes);
 
         try {
-            KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+            KeyFactory keyFactory = CryptoProviders.getKeyFactory("RSA");
             return keyFactory.generatePrivate(keySpec);
         } catch (Exception e) {
-            KeyFactory keyFactory = KeyFactory.getInstance("EC");
+            KeyFactory keyFactory = CryptoProviders.getKeyFactory("EC");
             return keyFactory.generatePrivate(keySpec);
         }
     }
@@ -104,12 +105,12 @@ public class PrivateKeyUtil {
 
             // Try RSA first (most likely for new CSR keys)
             try {
-                KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+                KeyFactory keyFactory = CryptoProviders.getKeyFactory("RSA");
                 return keyFactory.generatePrivate(keySpec);
             } catch (Exception rsaException) {
                 // Try EC as fallback
                 try {
-                    KeyFactory keyFactory = KeyFactory.getInstance("EC");
+                    KeyFactory keyFactory = CryptoProviders.getKeyFactory("EC");
                     return keyFactory.generatePrivate(keySpec);
                 } catch (Exception ecException) {
                     // Continue to try encrypted parsing
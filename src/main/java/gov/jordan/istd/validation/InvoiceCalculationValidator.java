@@ -0,0 +1,550 @@
+package gov.jordan.istd.validation;
+
+import gov.jordan.istd.dto.InvoiceValidationResult;
+import org.apache.log4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks the amounts of an invoice against each other the way Fotara recomputes them: every line is quantity x price
+ * minus its discounts, every tax subtotal is its taxable amount x percent, the line and invoice tax totals are the sums
+ * of their subtotals and lines, and the legal monetary totals add up (TaxExclusiveAmount is the total before the
+ * discount, as Fotara defines it). The invoice is read once with StAX, the totals that come before the lines are kept
+ * and the lines are summed with BigDecimal as they are read, so the memory used does not grow with the number of lines.
+ * A rule is only checked when all its amounts are present, a missing amount is left to the schema validation.
+ */
+public class InvoiceCalculationValidator {
+    public static final String PASSED = "PASSED";
+    public static final String FAILED = "FAILED";
+    // amounts are in JOD, a difference under one fils is a rounding of the seller's and not a calculation error
+    private static final BigDecimal TOLERANCE = new BigDecimal("0.001");
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final int MAX_ERRORS = 50;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, Field> FIELDS = new HashMap<>();
+    // the parents of the checked elements, anything outside them is skipped without building its path
+    private static final Set<String> PARENTS = new HashSet<>();
+    private static InvoiceCalculationValidator invoiceCalculationValidator;
+    private final Logger log = Logger.getLogger("InvoiceCalculationValidator");
+    private final XMLInputFactory inputFactory = createInputFactory();
+
+    static {
+        for (Field field : Field.values()) {
+            FIELDS.put(field.path, field);
+            for (int index = field.path.indexOf('/'); index != -1; index = field.path.indexOf('/', index + 1)) {
+                PARENTS.add(field.path.substring(0, index));
+            }
+        }
+    }
+
+    private InvoiceCalculationValidator() {
+    }
+
+    public static synchronized InvoiceCalculationValidator getInstance() {
+        if (Objects.isNull(invoiceCalculationValidator)) {
+            invoiceCalculationValidator = new InvoiceCalculationValidator();
+        }
+        return invoiceCalculationValidator;
+    }
+
+    public void validate(File xmlFile, InvoiceValidationResult result) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+            validate(inputStream, result);
+        } catch (IOException e) {
+            log.error(String.format("Failed to read [%s]", xmlFile.getPath()), e);
+            result.getCalculationsErrors().add(e.getMessage());
+            result.setCalculationsRules(FAILED);
+        }
+    }
+
+    public void validate(InputStream inputStream, InvoiceValidationResult result) {
+        List<String> errors = result.getCalculationsErrors();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            try {
+                new Calculation(reader, errors).run();
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            errors.add(e.getMessage());
+        }
+        result.setCalculationsRules(errors.isEmpty() ? PASSED : FAILED);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    // the checked elements by their path under Invoice, containers are handled when they end, values when they are read
+    private enum Field {
+        DOCUMENT_ALLOWANCE_CHARGE("AllowanceCharge"),
+        DOCUMENT_CHARGE_INDICATOR("AllowanceCharge/ChargeIndicator"),
+        DOCUMENT_ALLOWANCE_CHARGE_AMOUNT("AllowanceCharge/Amount"),
+        DOCUMENT_TAX_TOTAL("TaxTotal"),
+        DOCUMENT_TAX_AMOUNT("TaxTotal/TaxAmount"),
+        DOCUMENT_TAX_SUBTOTAL("TaxTotal/TaxSubtotal"),
+        DOCUMENT_TAXABLE_AMOUNT("TaxTotal/TaxSubtotal/TaxableAmount"),
+        DOCUMENT_SUBTOTAL_TAX_AMOUNT("TaxTotal/TaxSubtotal/TaxAmount"),
+        DOCUMENT_SUBTOTAL_PERCENT("TaxTotal/TaxSubtotal/Percent"),
+        DOCUMENT_TAX_CATEGORY_ID("TaxTotal/TaxSubtotal/TaxCategory/ID"),
+        DOCUMENT_TAX_CATEGORY_PERCENT("TaxTotal/TaxSubtotal/TaxCategory/Percent"),
+        LINE_EXTENSION_TOTAL("LegalMonetaryTotal/LineExtensionAmount"),
+        TAX_EXCLUSIVE_AMOUNT("LegalMonetaryTotal/TaxExclusiveAmount"),
+        TAX_INCLUSIVE_AMOUNT("LegalMonetaryTotal/TaxInclusiveAmount"),
+        ALLOWANCE_TOTAL_AMOUNT("LegalMonetaryTotal/AllowanceTotalAmount"),
+        CHARGE_TOTAL_AMOUNT("LegalMonetaryTotal/ChargeTotalAmount"),
+        PREPAID_AMOUNT("LegalMonetaryTotal/PrepaidAmount"),
+        PAYABLE_ROUNDING_AMOUNT("LegalMonetaryTotal/PayableRoundingAmount"),
+        PAYABLE_AMOUNT("LegalMonetaryTotal/PayableAmount"),
+        INVOICE_LINE("InvoiceLine"),
+        LINE_ID("InvoiceLine/ID"),
+        INVOICED_QUANTITY("InvoiceLine/InvoicedQuantity"),
+        LINE_EXTENSION_AMOUNT("InvoiceLine/LineExtensionAmount"),
+        LINE_TAX_AMOUNT("InvoiceLine/TaxTotal/TaxAmount"),
+        LINE_ROUNDING_AMOUNT("InvoiceLine/TaxTotal/RoundingAmount"),
+        LINE_TAX_SUBTOTAL("InvoiceLine/TaxTotal/TaxSubtotal"),
+        LINE_TAXABLE_AMOUNT("InvoiceLine/TaxTotal/TaxSubtotal/TaxableAmount"),
+        LINE_SUBTOTAL_TAX_AMOUNT("InvoiceLine/TaxTotal/TaxSubtotal/TaxAmount"),
+        LINE_SUBTOTAL_PERCENT("InvoiceLine/TaxTotal/TaxSubtotal/Percent"),
+        LINE_TAX_CATEGORY_ID("InvoiceLine/TaxTotal/TaxSubtotal/TaxCategory/ID"),
+        LINE_TAX_CATEGORY_PERCENT("InvoiceLine/TaxTotal/TaxSubtotal/TaxCategory/Percent"),
+        LINE_ALLOWANCE_CHARGE("InvoiceLine/AllowanceCharge"),
+        LINE_CHARGE_INDICATOR("InvoiceLine/AllowanceCharge/ChargeIndicator"),
+        LINE_ALLOWANCE_CHARGE_AMOUNT("InvoiceLine/AllowanceCharge/Amount"),
+        PRICE_AMOUNT("InvoiceLine/Price/PriceAmount"),
+        BASE_QUANTITY("InvoiceLine/Price/BaseQuantity"),
+        PRICE_ALLOWANCE_CHARGE("InvoiceLine/Price/AllowanceCharge"),
+        PRICE_CHARGE_INDICATOR("InvoiceLine/Price/AllowanceCharge/ChargeIndicator"),
+        PRICE_ALLOWANCE_CHARGE_AMOUNT("InvoiceLine/Price/AllowanceCharge/Amount");
+
+        private final String path;
+
+        Field(String path) {
+            this.path = path;
+        }
+
+        private boolean isContainer() {
+            return this == DOCUMENT_ALLOWANCE_CHARGE || this == DOCUMENT_TAX_TOTAL || this == DOCUMENT_TAX_SUBTOTAL
+                    || this == INVOICE_LINE || this == LINE_TAX_SUBTOTAL || this == LINE_ALLOWANCE_CHARGE || this == PRICE_ALLOWANCE_CHARGE;
+        }
+    }
+
+    // the amounts of one tax category summed over subtotals
+    private static class CategoryTotal {
+        private BigDecimal taxableAmount = BigDecimal.ZERO;
+        private BigDecimal taxAmount = BigDecimal.ZERO;
+    }
+
+    // the state of one pass over one invoice
+    private static class Calculation {
+        private final XMLStreamReader reader;
+        private final List<String> errors;
+        private final Map<Field, BigDecimal> totals = new HashMap<>();
+        private final Map<Field, Integer> totalLines = new HashMap<>();
+        private final List<BigDecimal> documentTaxAmounts = new ArrayList<>();
+        private final Map<String, CategoryTotal> documentCategories = new TreeMap<>();
+        private final Map<String, CategoryTotal> lineCategories = new TreeMap<>();
+        private BigDecimal lineExtensionSum = BigDecimal.ZERO;
+        private BigDecimal lineTaxSum = BigDecimal.ZERO;
+        private BigDecimal documentAllowances = BigDecimal.ZERO;
+        private BigDecimal documentCharges = BigDecimal.ZERO;
+        private boolean documentSubtotals;
+        private BigDecimal documentTaxAmount;
+        private BigDecimal documentSubtotalsTax;
+        private int documentTaxLine;
+        // the allowance or charge being read, ChargeIndicator comes before Amount
+        private boolean charge;
+        private BigDecimal allowanceChargeAmount;
+        // the subtotal being read, the category comes after the amounts
+        private BigDecimal taxableAmount;
+        private BigDecimal subtotalTaxAmount;
+        private BigDecimal subtotalPercent;
+        private BigDecimal categoryPercent;
+        private String categoryId;
+        private int subtotalLine;
+        // the line being read
+        private String lineId;
+        private int lineStart;
+        private BigDecimal quantity;
+        private BigDecimal lineExtensionAmount;
+        private BigDecimal lineTaxAmount;
+        private BigDecimal roundingAmount;
+        private BigDecimal priceAmount;
+        private BigDecimal baseQuantity;
+        private BigDecimal lineAllowances;
+        private BigDecimal lineCharges;
+        private BigDecimal lineSubtotalsTax;
+
+        private Calculation(XMLStreamReader reader, List<String> errors) {
+            this.reader = reader;
+            this.errors = errors;
+        }
+
+        private void run() throws XMLStreamException {
+            // the path of the current element under Invoice, null once outside the checked elements
+            List<String> paths = new ArrayList<>();
+            int depth = 0;
+            while (reader.hasNext() && errors.size() < MAX_ERRORS) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    String path = paths.remove(paths.size() - 1);
+                    Field field = Objects.isNull(path) ? null : FIELDS.get(path);
+                    if (Objects.nonNull(field)) {
+                        end(field);
+                    }
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                depth++;
+                String parent = paths.isEmpty() ? null : paths.get(paths.size() - 1);
+                String path;
+                if (depth == 1) {
+                    path = "";
+                } else if (depth == 2) {
+                    path = reader.getLocalName();
+                } else {
+                    path = Objects.nonNull(parent) && PARENTS.contains(parent) ? parent + "/" + reader.getLocalName() : null;
+                }
+                Field field = Objects.isNull(path) ? null : FIELDS.get(path);
+                if (Objects.isNull(field) || field.isContainer()) {
+                    paths.add(path);
+                    if (Objects.nonNull(field)) {
+                        start(field);
+                    }
+                    continue;
+                }
+                int line = reader.getLocation().getLineNumber();
+                // reading the text consumes the end of the element
+                String text = reader.getElementText();
+                depth--;
+                read(field, text, line);
+            }
+            if (errors.size() < MAX_ERRORS) {
+                checkTotals();
+            }
+        }
+
+        private void start(Field field) {
+            switch (field) {
+                case DOCUMENT_ALLOWANCE_CHARGE:
+                case LINE_ALLOWANCE_CHARGE:
+                case PRICE_ALLOWANCE_CHARGE:
+                    charge = false;
+                    allowanceChargeAmount = null;
+                    break;
+                case DOCUMENT_TAX_TOTAL:
+                    documentTaxAmount = null;
+                    documentSubtotalsTax = null;
+                    documentTaxLine = reader.getLocation().getLineNumber();
+                    break;
+                case DOCUMENT_TAX_SUBTOTAL:
+                case LINE_TAX_SUBTOTAL:
+                    taxableAmount = null;
+                    subtotalTaxAmount = null;
+                    subtotalPercent = null;
+                    categoryPercent = null;
+                    categoryId = null;
+                    subtotalLine = reader.getLocation().getLineNumber();
+                    break;
+                case INVOICE_LINE:
+                    lineId = null;
+                    lineStart = reader.getLocation().getLineNumber();
+                    quantity = null;
+                    lineExtensionAmount = null;
+                    lineTaxAmount = null;
+                    roundingAmount = null;
+                    priceAmount = null;
+                    baseQuantity = null;
+                    lineAllowances = BigDecimal.ZERO;
+                    lineCharges = BigDecimal.ZERO;
+                    lineSubtotalsTax = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void read(Field field, String text, int line) {
+            switch (field) {
+                case DOCUMENT_CHARGE_INDICATOR:
+                case LINE_CHARGE_INDICATOR:
+                case PRICE_CHARGE_INDICATOR:
+                    charge = Boolean.parseBoolean(text.trim());
+                    return;
+                case DOCUMENT_TAX_CATEGORY_ID:
+                case LINE_TAX_CATEGORY_ID:
+                    categoryId = text.trim();
+                    return;
+                case LINE_ID:
+                    lineId = text.trim();
+                    return;
+                default:
+                    break;
+            }
+            BigDecimal amount = parse(field, text, line);
+            if (Objects.isNull(amount)) {
+                return;
+            }
+            switch (field) {
+                case DOCUMENT_ALLOWANCE_CHARGE_AMOUNT:
+                case LINE_ALLOWANCE_CHARGE_AMOUNT:
+                case PRICE_ALLOWANCE_CHARGE_AMOUNT:
+                    allowanceChargeAmount = amount;
+                    break;
+                case DOCUMENT_TAX_AMOUNT:
+                    documentTaxAmount = amount;
+                    break;
+                case DOCUMENT_TAXABLE_AMOUNT:
+                case LINE_TAXABLE_AMOUNT:
+                    taxableAmount = amount;
+                    break;
+                case DOCUMENT_SUBTOTAL_TAX_AMOUNT:
+                case LINE_SUBTOTAL_TAX_AMOUNT:
+                    subtotalTaxAmount = amount;
+                    break;
+                case DOCUMENT_SUBTOTAL_PERCENT:
+                case LINE_SUBTOTAL_PERCENT:
+                    subtotalPercent = amount;
+                    break;
+                case DOCUMENT_TAX_CATEGORY_PERCENT:
+                case LINE_TAX_CATEGORY_PERCENT:
+                    categoryPercent = amount;
+                    break;
+                case INVOICED_QUANTITY:
+                    quantity = amount;
+                    break;
+                case LINE_EXTENSION_AMOUNT:
+                    lineExtensionAmount = amount;
+                    break;
+                case LINE_TAX_AMOUNT:
+                    lineTaxAmount = amount;
+                    break;
+                case LINE_ROUNDING_AMOUNT:
+                    roundingAmount = amount;
+                    break;
+                case PRICE_AMOUNT:
+                    priceAmount = amount;
+                    break;
+                case BASE_QUANTITY:
+                    baseQuantity = amount;
+                    break;
+                default:
+                    // the legal monetary totals, checked once the lines are summed
+                    if (!totals.containsKey(field)) {
+                        totals.put(field, amount);
+                        totalLines.put(field, line);
+                    }
+                    break;
+            }
+        }
+
+        private void end(Field field) {
+            switch (field) {
+                case DOCUMENT_ALLOWANCE_CHARGE:
+                    if (Objects.nonNull(allowanceChargeAmount)) {
+                        if (charge) {
+                            documentCharges = documentCharges.add(allowanceChargeAmount);
+                        } else {
+                            documentAllowances = documentAllowances.add(allowanceChargeAmount);
+                        }
+                    }
+                    break;
+                case LINE_ALLOWANCE_CHARGE:
+                case PRICE_ALLOWANCE_CHARGE:
+                    if (Objects.nonNull(allowanceChargeAmount)) {
+                        if (charge) {
+                            lineCharges = lineCharges.add(allowanceChargeAmount);
+                        } else {
+                            lineAllowances = lineAllowances.add(allowanceChargeAmount);
+                        }
+                    }
+                    break;
+                case DOCUMENT_TAX_SUBTOTAL:
+                    endSubtotal(null, documentCategories);
+                    documentSubtotals = true;
+                    documentSubtotalsTax = add(documentSubtotalsTax, subtotalTaxAmount);
+                    break;
+                case LINE_TAX_SUBTOTAL:
+                    endSubtotal(String.format("InvoiceLine [%s]", lineId), lineCategories);
+                    lineSubtotalsTax = add(lineSubtotalsTax, subtotalTaxAmount);
+                    break;
+                case DOCUMENT_TAX_TOTAL:
+                    if (Objects.nonNull(documentTaxAmount)) {
+                        documentTaxAmounts.add(documentTaxAmount);
+                        if (Objects.nonNull(documentSubtotalsTax) && differs(documentTaxAmount, documentSubtotalsTax)) {
+                            error(documentTaxLine, "TaxTotal: TaxAmount [%s] is not the sum of its TaxSubtotal amounts [%s]",
+                                    documentTaxAmount, documentSubtotalsTax);
+                        }
+                    }
+                    break;
+                case INVOICE_LINE:
+                    endLine();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // the invoice subtotals sum lines that are rounded one by one, they are checked against the lines and not the percent
+        private void endSubtotal(String owner, Map<String, CategoryTotal> categories) {
+            BigDecimal percent = Objects.nonNull(categoryPercent) ? categoryPercent : subtotalPercent;
+            String category = String.format("%s %s%%", Objects.toString(categoryId, ""),
+                    Objects.isNull(percent) ? "" : percent.stripTrailingZeros().toPlainString()).trim();
+            if (Objects.nonNull(owner) && Objects.nonNull(taxableAmount) && Objects.nonNull(subtotalTaxAmount) && Objects.nonNull(percent)) {
+                BigDecimal expected = taxableAmount.multiply(percent).divide(HUNDRED, MathContext.DECIMAL128);
+                if (differs(subtotalTaxAmount, expected)) {
+                    error(subtotalLine, "%s: TaxSubtotal [%s] TaxAmount [%s] is not TaxableAmount x Percent [%s]",
+                            owner, category, subtotalTaxAmount, expected);
+                }
+            }
+            CategoryTotal categoryTotal = categories.computeIfAbsent(category, key -> new CategoryTotal());
+            if (Objects.nonNull(taxableAmount)) {
+                categoryTotal.taxableAmount = categoryTotal.taxableAmount.add(taxableAmount);
+            }
+            if (Objects.nonNull(subtotalTaxAmount)) {
+                categoryTotal.taxAmount = categoryTotal.taxAmount.add(subtotalTaxAmount);
+            }
+        }
+
+        private void endLine() {
+            String line = String.format("InvoiceLine [%s]", lineId);
+            if (Objects.nonNull(quantity) && Objects.nonNull(priceAmount) && Objects.nonNull(lineExtensionAmount)) {
+                BigDecimal expected = quantity.multiply(priceAmount);
+                if (Objects.nonNull(baseQuantity) && baseQuantity.signum() != 0) {
+                    expected = expected.divide(baseQuantity, MathContext.DECIMAL128);
+                }
+                expected = expected.subtract(lineAllowances).add(lineCharges);
+                if (differs(lineExtensionAmount, expected)) {
+                    error(lineStart, "%s: LineExtensionAmount [%s] is not InvoicedQuantity x PriceAmount - allowances + charges [%s]",
+                            line, lineExtensionAmount, expected);
+                }
+            }
+            if (Objects.nonNull(lineTaxAmount) && Objects.nonNull(lineSubtotalsTax) && differs(lineTaxAmount, lineSubtotalsTax)) {
+                error(lineStart, "%s: TaxAmount [%s] is not the sum of its TaxSubtotal amounts [%s]", line, lineTaxAmount, lineSubtotalsTax);
+            }
+            BigDecimal taxAmount = Objects.nonNull(lineTaxAmount) ? lineTaxAmount : lineSubtotalsTax;
+            if (Objects.nonNull(roundingAmount) && Objects.nonNull(lineExtensionAmount) && Objects.nonNull(taxAmount)
+                    && differs(roundingAmount, lineExtensionAmount.add(taxAmount))) {
+                error(lineStart, "%s: RoundingAmount [%s] is not LineExtensionAmount + TaxAmount [%s]",
+                        line, roundingAmount, lineExtensionAmount.add(taxAmount));
+            }
+            lineExtensionSum = add(lineExtensionSum, lineExtensionAmount);
+            lineTaxSum = add(lineTaxSum, taxAmount);
+        }
+
+        private void checkTotals() {
+            BigDecimal allowanceTotal = totals.getOrDefault(Field.ALLOWANCE_TOTAL_AMOUNT, BigDecimal.ZERO);
+            BigDecimal chargeTotal = totals.getOrDefault(Field.CHARGE_TOTAL_AMOUNT, BigDecimal.ZERO);
+            checkTotal(Field.LINE_EXTENSION_TOTAL, lineExtensionSum, "the sum of the lines LineExtensionAmount");
+            checkTotal(Field.ALLOWANCE_TOTAL_AMOUNT, documentAllowances, "the sum of the invoice allowances");
+            checkTotal(Field.CHARGE_TOTAL_AMOUNT, documentCharges, "the sum of the invoice charges");
+            checkTotal(Field.TAX_EXCLUSIVE_AMOUNT, lineExtensionSum.add(allowanceTotal).subtract(chargeTotal),
+                    "the sum of the lines LineExtensionAmount + AllowanceTotalAmount - ChargeTotalAmount");
+            for (BigDecimal documentTax : documentTaxAmounts) {
+                if (differs(documentTax, lineTaxSum)) {
+                    error(documentTaxLine, "TaxTotal: TaxAmount [%s] is not the sum of the lines TaxAmount [%s]", documentTax, lineTaxSum);
+                }
+            }
+            if (documentSubtotals) {
+                checkCategories();
+            }
+            BigDecimal taxTotal = documentTaxAmounts.isEmpty() ? lineTaxSum : documentTaxAmounts.get(0);
+            BigDecimal taxExclusive = totals.get(Field.TAX_EXCLUSIVE_AMOUNT);
+            if (Objects.nonNull(taxExclusive)) {
+                checkTotal(Field.TAX_INCLUSIVE_AMOUNT, taxExclusive.subtract(allowanceTotal).add(chargeTotal).add(taxTotal),
+                        "TaxExclusiveAmount - AllowanceTotalAmount + ChargeTotalAmount + TaxAmount");
+            }
+            BigDecimal taxInclusive = totals.get(Field.TAX_INCLUSIVE_AMOUNT);
+            if (Objects.nonNull(taxInclusive)) {
+                checkTotal(Field.PAYABLE_AMOUNT, taxInclusive.subtract(totals.getOrDefault(Field.PREPAID_AMOUNT, BigDecimal.ZERO))
+                        .add(totals.getOrDefault(Field.PAYABLE_ROUNDING_AMOUNT, BigDecimal.ZERO)),
+                        "TaxInclusiveAmount - PrepaidAmount + PayableRoundingAmount");
+            }
+        }
+
+        // the invoice subtotals, when there are any, must match the lines category by category
+        private void checkCategories() {
+            Set<String> categories = new TreeSet<>(documentCategories.keySet());
+            categories.addAll(lineCategories.keySet());
+            for (String category : categories) {
+                CategoryTotal documentTotal = documentCategories.getOrDefault(category, new CategoryTotal());
+                CategoryTotal lineTotal = lineCategories.getOrDefault(category, new CategoryTotal());
+                if (differs(documentTotal.taxableAmount, lineTotal.taxableAmount)) {
+                    error(documentTaxLine, "TaxTotal: TaxSubtotal [%s] TaxableAmount [%s] is not the sum of the lines [%s]",
+                            category, documentTotal.taxableAmount, lineTotal.taxableAmount);
+                }
+                if (differs(documentTotal.taxAmount, lineTotal.taxAmount)) {
+                    error(documentTaxLine, "TaxTotal: TaxSubtotal [%s] TaxAmount [%s] is not the sum of the lines [%s]",
+                            category, documentTotal.taxAmount, lineTotal.taxAmount);
+                }
+            }
+        }
+
+        private void checkTotal(Field field, BigDecimal expected, String description) {
+            BigDecimal amount = totals.get(field);
+            if (Objects.nonNull(amount) && differs(amount, expected)) {
+                error(totalLines.get(field), "LegalMonetaryTotal: %s [%s] is not %s [%s]",
+                        field.path.substring(field.path.indexOf('/') + 1), amount, description, expected);
+            }
+        }
+
+        private BigDecimal parse(Field field, String text, int line) {
+            try {
+                return new BigDecimal(text.trim());
+            } catch (NumberFormatException e) {
+                error(line, "%s [%s] is not a number", field.path, text);
+                return null;
+            }
+        }
+
+        private void error(int line, String format, Object... args) {
+            if (errors.size() >= MAX_ERRORS) {
+                return;
+            }
+            for (int index = 0; index < args.length; index++) {
+                if (args[index] instanceof BigDecimal) {
+                    args[index] = ((BigDecimal) args[index]).toPlainString();
+                }
+            }
+            errors.add(String.format("line %d: %s", line, String.format(format, args)));
+        }
+
+        private static BigDecimal add(BigDecimal sum, BigDecimal amount) {
+            if (Objects.isNull(amount)) {
+                return sum;
+            }
+            return Objects.isNull(sum) ? amount : sum.add(amount);
+        }
+
+        private static boolean differs(BigDecimal amount, BigDecimal expected) {
+            return amount.subtract(expected).abs().compareTo(TOLERANCE) > 0;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package gov.jordan.istd.validation;
+
+import gov.jordan.istd.dto.InvoiceValidationResult;
+import gov.jordan.istd.dto.RegulationCondition;
+import gov.jordan.istd.dto.RegulationRule;
+import gov.jordan.istd.dto.RegulationRules;
+import gov.jordan.istd.io.ReaderHelper;
+import gov.jordan.istd.utils.InvoiceNamespaces;
+import gov.jordan.istd.utils.JsonUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The business rules of rules/regulation-rules.json compiled once into an evaluation plan: every field a rule or a
+ * condition reads gets an index, the element paths leading to them are indexed so the rest of the invoice is skipped,
+ * and the rules checking each value are attached to their field. An invoice is then read once with StAX, the values are
+ * checked as they stream by and what the other rules need (the first value of each field, whether it was found) is kept
+ * per field, so adding a rule on a field that is already read costs nothing more.
+ * <p>
+ * A field is the path of an element from the root, with the prefixes of the signing namespaces
+ * (/Invoice/cac:AdditionalDocumentReference/cbc:ID), optionally followed by @attribute, or //@attribute for that
+ * attribute on every element of the invoice. The checks are required (a non blank value, or the element for one with
+ * children), oneOf and pattern (every value, absent fields pass) and contains (one of the values is in the list). A
+ * rule with a when condition is only checked when the first value of the condition field is in its values or matches
+ * its pattern.
+ */
+public class InvoiceRegulationValidator {
+    public static final String PASSED = "PASSED";
+    public static final String FAILED = "FAILED";
+    private static final String RULES_RESOURCE = "rules/regulation-rules.json";
+    private static final String ROOT = "/Invoice";
+    private static final String DESCENDANT_ATTRIBUTE = "//@";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static InvoiceRegulationValidator invoiceRegulationValidator;
+    private final Logger log = Logger.getLogger("InvoiceRegulationValidator");
+    private final XMLInputFactory inputFactory = createInputFactory();
+    private final Map<String, String> prefixes = new HashMap<>();
+    private final Map<String, Integer> elementFields = new HashMap<>();
+    private final Map<String, Map<String, Integer>> attributeFields = new HashMap<>();
+    private final Map<String, Integer> descendantAttributes = new HashMap<>();
+    // the element paths that are read: the ones holding a field and their parents, and the parents alone
+    private final Set<String> paths = new HashSet<>();
+    private final Set<String> parents = new HashSet<>();
+    private final List<CompiledRule> compiledRules = new ArrayList<>();
+    private final List<List<CompiledRule>> valueRules = new ArrayList<>();
+    private final List<RegulationRule> rules;
+
+    private InvoiceRegulationValidator() {
+        long start = System.currentTimeMillis();
+        InvoiceNamespaces.NAMESPACES.forEach((prefix, uri) -> prefixes.put(uri, prefix));
+        RegulationRules regulationRules = JsonUtils.readJson(Objects.requireNonNull(ReaderHelper.readFileFromResource(RULES_RESOURCE)), RegulationRules.class);
+        if (Objects.isNull(regulationRules)) {
+            throw new IllegalStateException(String.format("Failed to read rules [%s]", RULES_RESOURCE));
+        }
+        rules = Collections.unmodifiableList(regulationRules.getRules());
+        for (RegulationRule rule : rules) {
+            compiledRules.add(compile(rule));
+        }
+        log.info(String.format("Compiled [%d] regulation rules over [%d] fields in [%d] ms", compiledRules.size(),
+                valueRules.size(), System.currentTimeMillis() - start));
+    }
+
+    public static synchronized InvoiceRegulationValidator getInstance() {
+        if (Objects.isNull(invoiceRegulationValidator)) {
+            invoiceRegulationValidator = new InvoiceRegulationValidator();
+        }
+        return invoiceRegulationValidator;
+    }
+
+    public List<RegulationRule> getRules() {
+        return rules;
+    }
+
+    public void validate(File xmlFile, InvoiceValidationResult result) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+            validate(inputStream, result);
+        } catch (IOException e) {
+            log.error(String.format("Failed to read [%s]", xmlFile.getPath()), e);
+            result.getRegulationsErrors().add(e.getMessage());
+            result.setRegulationsRules(FAILED);
+        }
+    }
+
+    public void validate(InputStream inputStream, InvoiceValidationResult result) {
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(inputStream);
+            try {
+                Evaluation evaluation = new Evaluation();
+                evaluation.read(reader);
+                evaluation.report(result);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            result.getRegulationsErrors().add(e.getMessage());
+        }
+        result.setRegulationsRules(result.getRegulationsErrors().isEmpty() ? PASSED : FAILED);
+    }
+
+    private CompiledRule compile(RegulationRule rule) {
+        if (StringUtils.isAnyBlank(rule.getId(), rule.getField(), rule.getCheck())) {
+            throw new IllegalStateException(String.format("Rule [%s] needs an id, a field and a check", rule.getId()));
+        }
+        Check check;
+        try {
+            check = Check.valueOf(rule.getCheck().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException(String.format("Rule [%s] has an unknown check [%s]", rule.getId(), rule.getCheck()));
+        }
+        if (check == Check.PATTERN && StringUtils.isBlank(rule.getPattern())) {
+            throw new IllegalStateException(String.format("Rule [%s] needs a pattern", rule.getId()));
+        }
+        if ((check == Check.ONE_OF || check == Check.CONTAINS) && rule.getValues().isEmpty()) {
+            throw new IllegalStateException(String.format("Rule [%s] needs values", rule.getId()));
+        }
+        CompiledRule compiledRule = new CompiledRule(compiledRules.size(), rule, check, indexField(rule.getField()),
+                new HashSet<>(rule.getValues()), compilePattern(rule.getPattern()));
+        RegulationCondition condition = rule.getWhen();
+        if (Objects.nonNull(condition)) {
+            if (StringUtils.isBlank(condition.getField()) || (condition.getValues().isEmpty() && StringUtils.isBlank(condition.getPattern()))) {
+                throw new IllegalStateException(String.format("The condition of rule [%s] needs a field and values or a pattern", rule.getId()));
+            }
+            compiledRule.conditionField = indexField(condition.getField());
+            compiledRule.conditionValues = new HashSet<>(condition.getValues());
+            compiledRule.conditionPattern = compilePattern(condition.getPattern());
+        }
+        if (check != Check.REQUIRED) {
+            valueRules.get(compiledRule.field).add(compiledRule);
+        }
+        return compiledRule;
+    }
+
+    // gives the field its index, the same field read by several rules is only read once
+    private int indexField(String field) {
+        Map<String, Integer> fields;
+        String key;
+        if (field.startsWith(DESCENDANT_ATTRIBUTE)) {
+            fields = descendantAttributes;
+            key = field.substring(DESCENDANT_ATTRIBUTE.length());
+        } else {
+            if (!field.startsWith(ROOT)) {
+                throw new IllegalStateException(String.format("Field [%s] must start with [%s]", field, ROOT));
+            }
+            int attribute = field.indexOf('@');
+            String path = attribute == -1 ? field : field.substring(0, attribute);
+            for (int index = path.indexOf('/', 1); index != -1; index = path.indexOf('/', index + 1)) {
+                parents.add(path.substring(0, index));
+            }
+            paths.addAll(parents);
+            paths.add(path);
+            if (attribute == -1) {
+                fields = elementFields;
+                key = path;
+            } else {
+                fields = attributeFields.computeIfAbsent(path, element -> new HashMap<>());
+                key = field.substring(attribute + 1);
+            }
+        }
+        Integer index = fields.get(key);
+        if (Objects.isNull(index)) {
+            index = valueRules.size();
+            valueRules.add(new ArrayList<>());
+            fields.put(key, index);
+        }
+        return index;
+    }
+
+    private static Pattern compilePattern(String pattern) {
+        return StringUtils.isBlank(pattern) ? null : Pattern.compile(pattern);
+    }
+
+    private String getPrefixedName(XMLStreamReader reader) {
+        String prefix = prefixes.get(StringUtils.defaultString(reader.getNamespaceURI()));
+        return Objects.isNull(prefix) ? "{" + reader.getNamespaceURI() + "}" + reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    private enum Check {
+        REQUIRED, ONE_OF, PATTERN, CONTAINS
+    }
+
+    private static class CompiledRule {
+        private final int index;
+        private final RegulationRule rule;
+        private final Check check;
+        private final int field;
+        private final Set<String> values;
+        private final Pattern pattern;
+        private int conditionField = -1;
+        private Set<String> conditionValues;
+        private Pattern conditionPattern;
+
+        private CompiledRule(int index, RegulationRule rule, Check check, int field, Set<String> values, Pattern pattern) {
+            this.index = index;
+            this.rule = rule;
+            this.check = check;
+            this.field = field;
+            this.values = values;
+            this.pattern = pattern;
+        }
+
+        private boolean accepts(String value) {
+            return Objects.nonNull(pattern) ? pattern.matcher(value).matches() : values.contains(value);
+        }
+
+        private boolean applies(String[] firstValues) {
+            if (conditionField == -1) {
+                return true;
+            }
+            String value = firstValues[conditionField];
+            if (Objects.isNull(value)) {
+                return false;
+            }
+            return Objects.nonNull(conditionPattern) ? conditionPattern.matcher(value).matches() : conditionValues.contains(value);
+        }
+    }
+
+    // the state of one pass over one invoice
+    private class Evaluation {
+        private final String[] firstValues = new String[valueRules.size()];
+        private final boolean[] found = new boolean[valueRules.size()];
+        private final boolean[] matched = new boolean[compiledRules.size()];
+        private final int[] violations = new int[compiledRules.size()];
+        private final String[] firstViolations = new String[compiledRules.size()];
+
+        private void read(XMLStreamReader reader) throws XMLStreamException {
+            // the path of each open element, null once outside the indexed paths
+            List<String> openPaths = new ArrayList<>();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    openPaths.remove(openPaths.size() - 1);
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                int line = reader.getLocation().getLineNumber();
+                descendantAttributes.forEach((attribute, field) -> {
+                    String value = reader.getAttributeValue(null, attribute);
+                    if (Objects.nonNull(value)) {
+                        value(field, value, line);
+                    }
+                });
+                String path;
+                if (openPaths.isEmpty()) {
+                    path = "/" + reader.getLocalName();
+                } else {
+                    String parent = openPaths.get(openPaths.size() - 1);
+                    path = Objects.isNull(parent) ? null : parent + "/" + getPrefixedName(reader);
+                }
+                if (Objects.isNull(path) || !paths.contains(path)) {
+                    openPaths.add(null);
+                    continue;
+                }
+                Map<String, Integer> attributes = attributeFields.get(path);
+                if (Objects.nonNull(attributes)) {
+                    attributes.forEach((attribute, field) -> {
+                        String value = reader.getAttributeValue(null, attribute);
+                        if (Objects.nonNull(value)) {
+                            value(field, value, line);
+                        }
+                    });
+                }
+                Integer field = elementFields.get(path);
+                if (Objects.isNull(field) || parents.contains(path)) {
+                    // an element with children is found as soon as it starts, its text is not a value
+                    if (Objects.nonNull(field)) {
+                        found[field] = true;
+                    }
+                    openPaths.add(path);
+                    continue;
+                }
+                // reading the text consumes the end of the element
+                value(field, reader.getElementText(), line);
+            }
+        }
+
+        private void value(int field, String text, int line) {
+            String value = text.trim();
+            if (Objects.isNull(firstValues[field])) {
+                firstValues[field] = value;
+            }
+            if (!value.isEmpty()) {
+                found[field] = true;
+            }
+            for (CompiledRule compiledRule : valueRules.get(field)) {
+                boolean accepted = compiledRule.accepts(value);
+                if (compiledRule.check == Check.CONTAINS) {
+                    matched[compiledRule.index] |= accepted;
+                } else if (!accepted && violations[compiledRule.index]++ == 0) {
+                    firstViolations[compiledRule.index] = String.format("found [%s] on line %d", value, line);
+                }
+            }
+        }
+
+        private void report(InvoiceValidationResult result) {
+            for (CompiledRule compiledRule : compiledRules) {
+                if (!compiledRule.applies(firstValues)) {
+                    continue;
+                }
+                String error = null;
+                switch (compiledRule.check) {
+                    case REQUIRED:
+                        if (!found[compiledRule.field]) {
+                            error = compiledRule.rule.getDescription();
+                        }
+                        break;
+                    case CONTAINS:
+                        if (!matched[compiledRule.index]) {
+                            error = compiledRule.rule.getDescription();
+                        }
+                        break;
+                    default:
+                        int count = violations[compiledRule.index];
+                        if (count > 0) {
+                            error = String.format("%s, %s%s", compiledRule.rule.getDescription(), firstViolations[compiledRule.index],
+                                    count > 1 ? String.format(" and [%d] more", count - 1) : "");
+                        }
+                        break;
+                }
+                if (Objects.nonNull(error)) {
+                    result.getRegulationsErrors().add(String.format("%s: %s", compiledRule.rule.getId(), error));
+                    result.getFailedRules().add(compiledRule.rule.getId());
+                }
+            }
+        }
+    }
+}
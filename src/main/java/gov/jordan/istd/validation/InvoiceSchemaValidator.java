@@ -0,0 +1,166 @@
+package gov.jordan.istd.validation;
+
+import gov.jordan.istd.dto.InvoiceValidationResult;
+import org.apache.log4j.Logger;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The UBL 2.1 invoice schema, with the common schemas it imports, compiled once for the whole process. A Schema is
+ * thread safe, Validators and XMLReaders are not, so each thread keeps its own and resets them after every invoice.
+ * Invoices are streamed through SAX, they are never loaded in memory. The readers refuse DTDs and the validator only
+ * uses the compiled grammar, so an invoice cannot make it load anything else.
+ */
+public class InvoiceSchemaValidator {
+    public static final String PASSED = "PASSED";
+    public static final String FAILED = "FAILED";
+    private static final String SCHEMA_RESOURCE = "xsd/maindoc/UBL-Invoice-2.1.xsd";
+    // an invoice with the wrong structure breaks the same rule on every line, past this the report stops growing
+    private static final int MAX_ERRORS = 50;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static InvoiceSchemaValidator invoiceSchemaValidator;
+    private final Logger log = Logger.getLogger("InvoiceSchemaValidator");
+    private final Schema schema;
+    private final SAXParserFactory parserFactory;
+    private final ThreadLocal<Validator> validator;
+    private final ThreadLocal<XMLReader> xmlReader;
+
+    private InvoiceSchemaValidator() {
+        long start = System.currentTimeMillis();
+        schema = compileSchema();
+        parserFactory = createParserFactory();
+        validator = ThreadLocal.withInitial(schema::newValidator);
+        xmlReader = ThreadLocal.withInitial(this::newXmlReader);
+        log.info(String.format("Compiled schema [%s] in [%d] ms", SCHEMA_RESOURCE, System.currentTimeMillis() - start));
+    }
+
+    public static synchronized InvoiceSchemaValidator getInstance() {
+        if (Objects.isNull(invoiceSchemaValidator)) {
+            invoiceSchemaValidator = new InvoiceSchemaValidator();
+        }
+        return invoiceSchemaValidator;
+    }
+
+    public InvoiceValidationResult validate(File xmlFile) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE)) {
+            return validate(inputStream, xmlFile.getName());
+        } catch (IOException e) {
+            log.error(String.format("Failed to read [%s]", xmlFile.getPath()), e);
+            InvoiceValidationResult result = new InvoiceValidationResult(xmlFile.getName());
+            result.setXsdValidation(FAILED);
+            result.getXsdErrors().add(e.getMessage());
+            return result;
+        }
+    }
+
+    public InvoiceValidationResult validate(InputStream inputStream, String name) {
+        InvoiceValidationResult result = new InvoiceValidationResult(name);
+        Validator invoiceValidator = validator.get();
+        XMLReader reader = xmlReader.get();
+        invoiceValidator.setErrorHandler(new CollectingErrorHandler(result.getXsdErrors()));
+        try {
+            invoiceValidator.validate(new SAXSource(reader, new InputSource(inputStream)));
+        } catch (SAXParseException e) {
+            // normally already reported by the error handler, either a fatal error or the error limit
+            if (result.getXsdErrors().isEmpty()) {
+                result.getXsdErrors().add(e.getMessage());
+            }
+        } catch (SAXException | IOException e) {
+            result.getXsdErrors().add(e.getMessage());
+        } finally {
+            invoiceValidator.reset();
+            reader.setContentHandler(null);
+            reader.setErrorHandler(null);
+        }
+        result.setXsdValidation(result.getXsdErrors().isEmpty() ? PASSED : FAILED);
+        return result;
+    }
+
+    private Schema compileSchema() {
+        URL schemaUrl = InvoiceSchemaValidator.class.getClassLoader().getResource(SCHEMA_RESOURCE);
+        if (Objects.isNull(schemaUrl)) {
+            throw new IllegalStateException(String.format("Schema [%s] not found", SCHEMA_RESOURCE));
+        }
+        try {
+            SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            schemaFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            // the imported schemas are next to the main one, in the jar or on disk, nothing is fetched from the network
+            schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+            schemaFactory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            return schemaFactory.newSchema(schemaUrl);
+        } catch (SAXException e) {
+            throw new IllegalStateException(String.format("Failed to compile schema [%s]", SCHEMA_RESOURCE), e);
+        }
+    }
+
+    private XMLReader newXmlReader() {
+        try {
+            return parserFactory.newSAXParser().getXMLReader();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SAXParserFactory createParserFactory() {
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            return factory;
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CollectingErrorHandler implements ErrorHandler {
+        private final List<String> errors;
+
+        private CollectingErrorHandler(List<String> errors) {
+            this.errors = errors;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            errors.add(format(exception));
+            if (errors.size() >= MAX_ERRORS) {
+                throw exception;
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            errors.add(format(exception));
+            throw exception;
+        }
+
+        private String format(SAXParseException exception) {
+            return String.format("line %d, column %d: %s", exception.getLineNumber(), exception.getColumnNumber(), exception.getMessage());
+        }
+    }
+}
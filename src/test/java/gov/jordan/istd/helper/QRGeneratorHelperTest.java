@@ -0,0 +1,126 @@
+package gov.jordan.istd.helper;
+
+import com.payneteasy.tlv.BerTag;
+import com.payneteasy.tlv.BerTlvBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The QR code written by QRGeneratorHelper must stay byte for byte what BerTlvBuilder produced before it was replaced.
+ * Both encode the same random fields, sized around the one, two and three byte length forms and mixing one to four
+ * byte UTF-8 characters with unpaired surrogates. The seed is fixed so a failure can be replayed.
+ */
+class QRGeneratorHelperTest {
+    private static final long SEED = 0x5152L;
+    private static final int ROUNDS = 2000;
+    // BerTlvBuilder writes into a 5 KB buffer, the fields are kept well below it
+    private static final int MAX_VALUE_LENGTH = 400;
+
+    private final QRGeneratorHelper qrGeneratorHelper = new QRGeneratorHelper();
+
+    @Test
+    void encodesLikeBerTlvBuilder() {
+        Random random = new Random(SEED);
+        for (int round = 0; round < ROUNDS; round++) {
+            String sellerName = randomText(random);
+            String vatRegistrationNumber = randomText(random);
+            String timeStamp = randomText(random);
+            String invoiceTotal = randomText(random);
+            String vatTotal = randomText(random);
+            String hashedXml = randomText(random);
+            byte[] publicKey = randomBytes(random);
+            byte[] certificateSignature = randomBytes(random);
+            byte[] signatureBytes = randomBytes(random);
+            // the signature is Base64 when signing, anything else is encoded as text
+            String signature = random.nextInt(4) == 0 ? randomText(random) : Base64.getEncoder().encodeToString(signatureBytes);
+
+            String expected = berTlvBuilderQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal, vatTotal, hashedXml,
+                    publicKey, signature, certificateSignature);
+            String message = String.format("round [%d] of seed [%d]", round, SEED);
+            assertEquals(expected, qrGeneratorHelper.generateQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal,
+                    vatTotal, hashedXml, publicKey, signature, certificateSignature), message);
+            if (!signature.equals(Base64.getEncoder().encodeToString(signatureBytes))) {
+                continue;
+            }
+            assertEquals(expected, qrGeneratorHelper.generateQrCode(sellerName, vatRegistrationNumber, timeStamp, invoiceTotal,
+                    vatTotal, hashedXml, signatureBytes, QRGeneratorHelper.encodeCertificateTail(publicKey, certificateSignature)), message);
+        }
+    }
+
+    // the encoder QRGeneratorHelper replaced
+    private static String berTlvBuilderQrCode(String sellerName, String vatRegistrationNumber, String timeStamp, String invoiceTotal,
+                                              String vatTotal, String hashedXml, byte[] publicKey, String signature, byte[] certificateSignature) {
+        byte[] signatureBytes;
+        try {
+            signatureBytes = Base64.getDecoder().decode(signature);
+        } catch (Exception e) {
+            signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new BerTlvBuilder()
+                .addText(new BerTag(1), sellerName, StandardCharsets.UTF_8)
+                .addText(new BerTag(2), vatRegistrationNumber, StandardCharsets.UTF_8)
+                .addText(new BerTag(3), timeStamp, StandardCharsets.UTF_8)
+                .addText(new BerTag(4), invoiceTotal, StandardCharsets.UTF_8)
+                .addText(new BerTag(5), vatTotal, StandardCharsets.UTF_8)
+                .addText(new BerTag(6), hashedXml, StandardCharsets.UTF_8)
+                .addBytes(new BerTag(7), signatureBytes)
+                .addBytes(new BerTag(8), publicKey)
+                .addBytes(new BerTag(9), certificateSignature)
+                .buildArray();
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static byte[] randomBytes(Random random) {
+        byte[] bytes = new byte[randomLength(random)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    // a character is at most 4 UTF-8 bytes, the text stays within MAX_VALUE_LENGTH bytes
+    private static String randomText(Random random) {
+        int length = randomLength(random) / 4;
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    text.append((char) (0x20 + random.nextInt(0x5F)));
+                    break;
+                case 1:
+                    // Arabic, two bytes
+                    text.append((char) (0x0600 + random.nextInt(0x100)));
+                    break;
+                case 2:
+                    text.append((char) (0x0800 + random.nextInt(0xD000)));
+                    break;
+                case 3:
+                    text.appendCodePoint(0x10000 + random.nextInt(0x10000));
+                    break;
+                case 4:
+                    text.append((char) (0xD800 + random.nextInt(0x800)));
+                    break;
+                default:
+                    text.append((char) random.nextInt(0x80));
+            }
+        }
+        return text.toString();
+    }
+
+    // mostly short form lengths, regularly around the 0x80 and 0x100 boundaries
+    private static int randomLength(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return 0x7E + random.nextInt(4);
+            case 1:
+                return 0xFE + random.nextInt(4);
+            case 2:
+                return random.nextInt(MAX_VALUE_LENGTH);
+            default:
+                return random.nextInt(0x80);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package gov.jordan.istd.helper;
+
+import gov.jordan.istd.dto.EInvoiceSigningResults;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * One SigningHelper shared by many threads signing the same invoice must give every thread the result of a single
+ * threaded signature: the stylesheets are compiled once but every thread transforms with its own Transformer.
+ */
+class SigningHelperConcurrencyTest {
+    private static final int THREADS = 32;
+    private static final String INVOICE = "/samples/b2b_invoice.xml";
+
+    private static KeyPair keyPair;
+    private static String certificate;
+    private static String invoice;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+        X500Name subject = new X500Name("CN=Test,O=Test,C=JO");
+        Date notBefore = new Date();
+        Date notAfter = new Date(notBefore.getTime() + TimeUnit.DAYS.toMillis(1));
+        X509Certificate x509Certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(subject, BigInteger.ONE, notBefore, notAfter, subject, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+        certificate = Base64.getEncoder().encodeToString(x509Certificate.getEncoded());
+        try (InputStream input = SigningHelperConcurrencyTest.class.getResourceAsStream(INVOICE)) {
+            assertNotNull(input, INVOICE);
+            // filled in the same way as the onboarding invoices
+            invoice = IOUtils.toString(input, StandardCharsets.UTF_8)
+                    .replace("${ID}", "INV-1")
+                    .replace("${UUID}", "7b2d1f3e-6a4c-3b8e-9f0a-1c2d3e4f5a6b")
+                    .replace("${ISSUE_DATE}", "2026-01-15")
+                    .replace("${VAT_NUMBER}", "12345678")
+                    .replace("${TAXPAYER_NAME}", "Test")
+                    .replace("${DEVICE_ID}", "1");
+        }
+    }
+
+    @Test
+    void signsTheSameInvoiceIdenticallyFromManyThreads() throws Exception {
+        SigningHelper signingHelper = new SigningHelper();
+        EInvoiceSigningResults expected = signingHelper.signEInvoice(invoice, keyPair.getPrivate(), certificate);
+        assertNotNull(expected, "single threaded signature");
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<EInvoiceSigningResults>> futures = new ArrayList<>(THREADS);
+            for (int thread = 0; thread < THREADS; thread++) {
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    return signingHelper.signEInvoice(invoice, keyPair.getPrivate(), certificate);
+                }));
+            }
+            start.countDown();
+            for (Future<EInvoiceSigningResults> future : futures) {
+                EInvoiceSigningResults results = future.get(2, TimeUnit.MINUTES);
+                assertNotNull(results, "signature of one of the threads");
+                assertEquals(expected.getInvoiceHash(), results.getInvoiceHash());
+                assertEquals(expected.getSignature(), results.getSignature());
+                assertEquals(expected.getInvoiceUUID(), results.getInvoiceUUID());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}